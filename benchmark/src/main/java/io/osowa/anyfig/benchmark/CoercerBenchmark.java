@@ -0,0 +1,83 @@
+package io.osowa.anyfig.benchmark;
+
+import com.google.gson.reflect.TypeToken;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import io.osowa.anyfig.Coercer;
+
+import java.lang.reflect.Type;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// the time to coerce a large array or collection from a string: split from a delimited list (filling primitive
+// arrays directly), against parsed from a JSON array by the registry's cached JSON converter
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CoercerBenchmark {
+
+    private static final Type STRINGS = new TypeToken<List<String>>() {}.getType();
+
+    @Param({ "10000", "100000" })
+    public int elements;
+
+    @Param({ "delimited", "json" })
+    public String format;
+
+    private Coercer coercer;
+    private String ints;
+    private String strings;
+
+    @Setup
+    public void setup() {
+        coercer = new Coercer();
+        boolean json = format.equals("json");
+        StringBuilder ints = new StringBuilder(json ? "[" : "");
+        StringBuilder strings = new StringBuilder(json ? "[" : "");
+        for (int i = 0; i < elements; i++) {
+            if (i > 0) {
+                ints.append(',');
+                strings.append(',');
+            }
+            ints.append(i * 7919 - elements);
+            strings.append(json ? "\"value" + i + '"' : "value" + i);
+        }
+        this.ints = ints.append(json ? "]" : "").toString();
+        this.strings = strings.append(json ? "]" : "").toString();
+    }
+
+    @Benchmark
+    public Object intArray() {
+        return coercer.coerce(ints, int[].class);
+    }
+
+    @Benchmark
+    public Object stringList() {
+        return coercer.coerce(strings, STRINGS);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+            .include(CoercerBenchmark.class.getName())
+            .build())
+            .run();
+    }
+
+}
@@ -0,0 +1,105 @@
+package io.osowa.anyfig.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import io.osowa.anyfig.Anyfig;
+import io.osowa.anyfig.mechanisms.SourceSnapshot;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+// the time to configure a large collection of objects with Anyfig.configureAll, sweeping the parallelism of the
+// executor (and whether the deltas are reported in input or completion order), against configuring the same
+// objects one at a time with Anyfig.configure.  each call alternates between two sets of arguments, so that
+// every field of every object changes every time
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConfigureAllBenchmark {
+
+    @Param({ "1", "2", "4", "8", "16" })
+    public int parallelism;
+
+    @Param({ "10000", "100000" })
+    public int objects;
+
+    @Param({ "true", "false" })
+    public boolean ordered;
+
+    private Anyfig anyfig;
+    private List<Settings> settings;
+    private SourceSnapshot[] sources;
+    private ForkJoinPool executor;
+    private int next = 0;
+
+    // the objects to configure, each with a few fields set from the arguments
+    static class Settings {
+        int field1;
+        int field2;
+        String field3;
+        long field4;
+    }
+
+    @Setup
+    public void setup() {
+        anyfig = new Anyfig();
+        settings = new ArrayList<>(objects);
+        for (int i = 0; i < objects; i++) {
+            settings.add(new Settings());
+        }
+        sources = new SourceSnapshot[] {
+            SourceSnapshot.of(new String[] { "--field1=1", "--field2=2", "--field3=three", "--field4=4" }),
+            SourceSnapshot.of(new String[] { "--field1=5", "--field2=6", "--field3=seven", "--field4=8" }),
+        };
+        executor = new ForkJoinPool(parallelism);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        executor.shutdown();
+        anyfig.close();
+    }
+
+    @Benchmark
+    public List<Settings> configureAll() {
+        anyfig.configureAll(sources[next++ % sources.length], settings, executor, ordered);
+        return settings;
+    }
+
+    @Benchmark
+    public List<Settings> configure() {
+        SourceSnapshot snapshot = sources[next++ % sources.length];
+        for (Settings object : settings) {
+            anyfig.configure(snapshot, object);
+        }
+        return settings;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+            .include(ConfigureAllBenchmark.class.getName())
+            .build())
+            .run();
+    }
+
+}
@@ -0,0 +1,106 @@
+package io.osowa.anyfig.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import io.osowa.anyfig.utils.FieldAccessor;
+import io.osowa.anyfig.utils.Utils;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.TimeUnit;
+
+// the cost of a single get or set of a private field: through the MethodHandleAccessor that ClassPlan caches
+// (boxed, and primitive-specialized with getInt/setInt), against toggling the field's accessibility around
+// Field.get/set on every access with Utils.whileAccessible, as before
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FieldAccessorBenchmark {
+
+    // the fields to access, private so that reflection needs them to be made accessible
+    static class Settings {
+        private int count;
+        private String name;
+    }
+
+    private Settings settings;
+    private Field count;
+    private Field name;
+    private FieldAccessor countAccessor;
+    private FieldAccessor nameAccessor;
+    private int next = 0;
+
+    @Setup
+    public void setup() throws NoSuchFieldException {
+        settings = new Settings();
+        count = Settings.class.getDeclaredField("count");
+        name = Settings.class.getDeclaredField("name");
+        countAccessor = FieldAccessor.reflective(count);
+        nameAccessor = FieldAccessor.reflective(name);
+    }
+
+    @Benchmark
+    public Object accessorGet() throws Exception {
+        return nameAccessor.get(settings);
+    }
+
+    @Benchmark
+    public void accessorSet() throws Exception {
+        nameAccessor.set(settings, (next++ & 1) == 0 ? "one" : "two");
+    }
+
+    @Benchmark
+    public int accessorGetInt() throws Exception {
+        return countAccessor.getInt(settings);
+    }
+
+    @Benchmark
+    public void accessorSetInt() throws Exception {
+        countAccessor.setInt(settings, next++);
+    }
+
+    @Benchmark
+    public Object toggleGet() throws Exception {
+        return Utils.whileAccessible(name, () -> name.get(settings));
+    }
+
+    @Benchmark
+    public void toggleSet() throws Exception {
+        String value = (next++ & 1) == 0 ? "one" : "two";
+        Utils.whileAccessible(name, () -> name.set(settings, value));
+    }
+
+    @Benchmark
+    public int toggleGetInt() throws Exception {
+        return (Integer) Utils.whileAccessible(count, () -> count.get(settings));
+    }
+
+    @Benchmark
+    public void toggleSetInt() throws Exception {
+        int value = next++;
+        Utils.whileAccessible(count, () -> count.set(settings, value));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+            .include(FieldAccessorBenchmark.class.getName())
+            .build())
+            .run();
+    }
+
+}
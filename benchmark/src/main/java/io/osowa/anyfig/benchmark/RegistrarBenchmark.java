@@ -0,0 +1,192 @@
+package io.osowa.anyfig.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import io.osowa.anyfig.Callbacks;
+import io.osowa.anyfig.Registrar;
+import io.osowa.anyfig.utils.Utils;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+// the throughput of Registrar lookups (which happen for every configured field and every Remote API request),
+// lock-free against the copy-on-write snapshots versus synchronized as they used to be (see
+// SynchronizedRegistrar), optionally with another thread registering callbacks and re-registering every remote
+// key (as each configure pass does) throughout.  run main for the sweep from 1 to 64 reader threads, or
+// benchmarks.jar with `-t` for any one thread count
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RegistrarBenchmark {
+
+    public static final int[] THREADS = { 1, 2, 4, 8, 16, 32, 64 };
+
+    @Param({ "copy-on-write", "synchronized" })
+    public String registrar;
+
+    @Param({ "false", "true" })
+    public boolean writer;
+
+    private Lookups lookups;
+    private Field[] fields;
+    private String[] keys;
+    private volatile boolean writing;
+    private Thread thread;
+
+    // the lookups under test, whichever the registrar
+    private interface Lookups {
+        Optional<Callbacks> getCallbacks(Field field);
+        Optional<Field> getRemoteKey(String key);
+        void register(Callbacks callbacks, Field field);
+        void registerRemote(Field field);
+    }
+
+    // some fields to look up: class callbacks for Settings, package callbacks for Other
+    static class Settings {
+        static int a, b, c, d, e, f, g, h;
+    }
+
+    static class Other {
+        static int a, b, c, d, e, f, g, h;
+    }
+
+    // each reader thread walks the fields and keys on its own
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next = 0;
+    }
+
+    @Setup
+    public void setup() {
+        List<Field> fields = new ArrayList<>();
+        for (Class<?> clazz : new Class<?>[] { Settings.class, Other.class }) {
+            for (Field field : clazz.getDeclaredFields()) {
+                if (!field.isSynthetic()) {
+                    fields.add(field);
+                }
+            }
+        }
+        this.fields = fields.toArray(new Field[0]);
+        keys = new String[this.fields.length];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = Utils.encodeField(this.fields[i]);
+        }
+        Callbacks callbacks = callbacks();
+        if (registrar.equals("copy-on-write")) {
+            Registrar target = new Registrar();
+            target.register(callbacks, Settings.class);
+            target.register(callbacks, RegistrarBenchmark.class.getPackage());
+            for (Field field : this.fields) {
+                target.registerRemote(field, Utils.getAnnotation(field));
+            }
+            lookups = new Lookups() {
+                @Override public Optional<Callbacks> getCallbacks(Field field) {
+                    return target.getCallbacks(Optional.empty(), field);
+                }
+                @Override public Optional<Field> getRemoteKey(String key) {
+                    return target.getRemoteKey(key);
+                }
+                @Override public void register(Callbacks callbacks, Field field) {
+                    target.register(callbacks, field);
+                }
+                @Override public void registerRemote(Field field) {
+                    target.registerRemote(field, Utils.getAnnotation(field));
+                }
+            };
+        } else {
+            SynchronizedRegistrar target = new SynchronizedRegistrar();
+            target.register(callbacks, Settings.class);
+            target.register(callbacks, RegistrarBenchmark.class.getPackage());
+            for (Field field : this.fields) {
+                target.registerRemote(field, Utils.getAnnotation(field));
+            }
+            lookups = new Lookups() {
+                @Override public Optional<Callbacks> getCallbacks(Field field) {
+                    return target.getCallbacks(Optional.empty(), field);
+                }
+                @Override public Optional<Field> getRemoteKey(String key) {
+                    return target.getRemoteKey(key);
+                }
+                @Override public void register(Callbacks callbacks, Field field) {
+                    target.register(callbacks, field);
+                }
+                @Override public void registerRemote(Field field) {
+                    target.registerRemote(field, Utils.getAnnotation(field));
+                }
+            };
+        }
+        if (writer) {
+            // every millisecond, re-register one field's callbacks (far more often than any real application),
+            // and then every field's remote key, just as configuring the fields' classes again would
+            writing = true;
+            thread = new Thread(() -> {
+                Field field = this.fields[0];
+                while (writing) {
+                    lookups.register(callbacks(), field);
+                    for (Field remote : this.fields) {
+                        lookups.registerRemote(remote);
+                    }
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+                }
+            }, getClass().getSimpleName() + "-writer");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        if (thread != null) {
+            writing = false;
+            thread.join();
+            thread = null;
+        }
+    }
+
+    @Benchmark
+    public Optional<Callbacks> getCallbacks(Cursor cursor) {
+        return lookups.getCallbacks(fields[cursor.next++ % fields.length]);
+    }
+
+    @Benchmark
+    public Optional<Field> getRemoteKey(Cursor cursor) {
+        return lookups.getRemoteKey(keys[cursor.next++ % keys.length]);
+    }
+
+    private static Callbacks callbacks() {
+        return new Callbacks(Optional.of(delta -> {}), Optional.empty(), Optional.empty(), Optional.empty());
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        for (int threads : THREADS) {
+            new Runner(new OptionsBuilder()
+                .include(RegistrarBenchmark.class.getName())
+                .threads(threads)
+                .build())
+                .run();
+        }
+    }
+
+}
@@ -0,0 +1,79 @@
+package io.osowa.anyfig.benchmark;
+
+import io.osowa.anyfig.Callbacks;
+import io.osowa.anyfig.Configurable;
+import io.osowa.anyfig.utils.Utils;
+
+import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+// the Registrar as it was before its lookups were made lock-free: mutable maps, with every registration and
+// every lookup synchronized.  kept only as the baseline for RegistrarBenchmark
+
+class SynchronizedRegistrar {
+
+    private Callbacks globalCallbacks = null;
+    private final Map<String,Callbacks> packageCallbacks = new HashMap<>();
+    private final Map<Class<?>,Callbacks> classCallbacks = new HashMap<>();
+    private final Map<Object,Callbacks> objectCallbacks = new HashMap<>();
+    private final Map<Field,Callbacks> fieldCallbacks = new HashMap<>();
+    private final Map<String,Field> remoteKeys = new HashMap<>();
+
+    synchronized void register(Callbacks callbacks) {
+        globalCallbacks = callbacks;
+    }
+
+    synchronized void register(Callbacks callbacks, Package pkg) {
+        packageCallbacks.put(pkg.getName(), callbacks);
+    }
+
+    synchronized void register(Callbacks callbacks, Class<?> clazz) {
+        classCallbacks.put(clazz, callbacks);
+    }
+
+    synchronized void register(Callbacks callbacks, Field field) {
+        fieldCallbacks.put(field, callbacks);
+    }
+
+    synchronized Optional<Callbacks> getCallbacks(Optional<Object> object, Field field) {
+        if (fieldCallbacks.containsKey(field)) {
+            return Optional.of(fieldCallbacks.get(field));
+        }
+        if (object.isPresent() && objectCallbacks.containsKey(object.get())) {
+            return Optional.of(objectCallbacks.get(object.get()));
+        }
+        Class<?> clazz = field.getDeclaringClass();
+        if (classCallbacks.containsKey(clazz)) {
+            return Optional.of(classCallbacks.get(clazz));
+        }
+        Package pkg = clazz.getPackage();
+        if (pkg != null) {
+            // package foo.bar.baz: check (foo.bar.baz, foo.bar, foo) in that order up to the root
+            String name = pkg.getName();
+            while (true) {
+                if (packageCallbacks.containsKey(name)) {
+                    return Optional.of(packageCallbacks.get(name));
+                }
+                int lastdot = name.lastIndexOf('.');
+                if (lastdot == -1) break; // we've reached the root
+                name = name.substring(0, lastdot);
+            }
+        }
+        return Optional.ofNullable(globalCallbacks);
+    }
+
+    synchronized void registerRemote(Field field, Configurable annotation) {
+        String key = annotation.remote();
+        if (key.isEmpty()) {
+            key = Utils.encodeField(field);
+        }
+        remoteKeys.put(key, field);
+    }
+
+    synchronized Optional<Field> getRemoteKey(String key) {
+        return Optional.ofNullable(remoteKeys.get(key));
+    }
+
+}
@@ -0,0 +1,282 @@
+package io.osowa.anyfig.processor;
+
+import io.osowa.anyfig.Binder;
+import io.osowa.anyfig.Configurable;
+import io.osowa.anyfig.mechanisms.ArgsMechanism;
+import io.osowa.anyfig.mechanisms.ConstMechanism;
+import io.osowa.anyfig.mechanisms.EnvVarMechanism;
+import io.osowa.anyfig.mechanisms.FileMechanism;
+import io.osowa.anyfig.mechanisms.PropertyMechanism;
+import io.osowa.anyfig.utils.Pair;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+
+// generates a Binder for every class that mentions @Configurable on its fields, on itself or on its package.
+// the binder lists the class's configurable fields with their annotations and candidate keys precomputed (by
+// exactly the same code that the mechanisms use at run time), and sets non-private fields directly rather than
+// reflectively.  the only reflection left is one getDeclaredFields() per class, for the Field objects by which
+// the rest of Anyfig (eg, the history) knows the fields.  Java 8 has no way for another class to reach a
+// private field other than reflection, so those are set through method handles; a note says which.
+
+@SupportedAnnotationTypes("*")
+public class BinderProcessor extends AbstractProcessor {
+
+    private final Set<String> generated = new HashSet<>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment round) {
+        for (TypeElement type : ElementFilter.typesIn(round.getRootElements())) {
+            process(type);
+        }
+        return false; // we never claim annotations; other processors are welcome to them too
+    }
+
+    private void process(TypeElement type) {
+        for (TypeElement nested : ElementFilter.typesIn(type.getEnclosedElements())) {
+            process(nested);
+        }
+        if (type.getKind() != ElementKind.CLASS || !mentionsConfigurable(type)) {
+            return;
+        }
+        String binaryName = processingEnv.getElementUtils().getBinaryName(type).toString();
+        if (binaryName.endsWith(Binder.SUFFIX) || !generated.add(binaryName)) {
+            return;
+        }
+        try {
+            generate(type, binaryName);
+        } catch (IOException exception) {
+            processingEnv.getMessager().printMessage(
+                Diagnostic.Kind.ERROR, "Unable to generate binder for `" + binaryName + "`: " + exception, type);
+        }
+    }
+
+    private boolean mentionsConfigurable(TypeElement type) {
+        return
+            type.getAnnotation(Configurable.class) != null ||
+            getPackage(type).getAnnotation(Configurable.class) != null ||
+            ElementFilter.fieldsIn(type.getEnclosedElements()).stream()
+                .anyMatch(field -> field.getAnnotation(Configurable.class) != null);
+    }
+
+    // mirrors ClassPlan.isConfigurable
+    private boolean isConfigurable(VariableElement field, TypeElement type) {
+        Element[] elements = { field, type };
+        return
+            !field.getModifiers().contains(Modifier.FINAL) &&
+            Stream.of(elements).allMatch(element ->
+                element.getAnnotation(Configurable.class) == null ||
+                !element.getAnnotation(Configurable.class).ignore()) &&
+            !isIgnored(getPackage(type));
+    }
+
+    // mirrors ClassPlan.isIgnored: is the package, or any ancestor package, marked "ignore"?
+    private boolean isIgnored(PackageElement pkg) {
+        if (pkg.isUnnamed()) {
+            return false;
+        }
+        String name = pkg.getQualifiedName().toString();
+        while (true) {
+            PackageElement element = processingEnv.getElementUtils().getPackageElement(name);
+            if (element != null &&
+                element.getAnnotation(Configurable.class) != null &&
+                element.getAnnotation(Configurable.class).ignore())
+            {
+                return true;
+            }
+            int lastdot = name.lastIndexOf('.');
+            if (lastdot == -1) break; // we've reached the root
+            name = name.substring(0, lastdot);
+        }
+        return false;
+    }
+
+    private void generate(TypeElement type, String binaryName) throws IOException {
+        PackageElement pkg = getPackage(type);
+        String packageName = pkg.isUnnamed() ? "" : pkg.getQualifiedName().toString();
+        String simpleName = (packageName.isEmpty() ? binaryName : binaryName.substring(packageName.length() + 1)) + Binder.SUFFIX;
+        List<VariableElement> fields = new ArrayList<>();
+        for (VariableElement field : ElementFilter.fieldsIn(type.getEnclosedElements())) {
+            if (isConfigurable(field, type)) {
+                fields.add(field);
+            }
+        }
+        String qualifiedName = packageName.isEmpty() ? simpleName : packageName + '.' + simpleName;
+        try (Writer writer = processingEnv.getFiler().createSourceFile(qualifiedName, type).openWriter();
+             PrintWriter out = new PrintWriter(writer))
+        {
+            if (!packageName.isEmpty()) {
+                out.println("package " + packageName + ';');
+                out.println();
+            }
+            out.println("// generated by " + getClass().getName() + " from " + binaryName + "; do not edit");
+            out.println();
+            out.println("@SuppressWarnings(\"unchecked\")");
+            out.println("public final class " + simpleName + " implements io.osowa.anyfig.Binder {");
+            out.println();
+            out.println("    @Override");
+            out.println("    public java.util.List<io.osowa.anyfig.FieldPlan> bind(Class<?> clazz) throws Exception {");
+            out.println("        java.util.List<io.osowa.anyfig.FieldPlan> plans = new java.util.ArrayList<>(" + fields.size() + ");");
+            out.println("        java.util.Map<String,java.lang.reflect.Field> fields = new java.util.HashMap<>();");
+            out.println("        for (java.lang.reflect.Field declared : clazz.getDeclaredFields()) {");
+            out.println("            fields.put(declared.getName(), declared);");
+            out.println("        }");
+            out.println("        java.lang.reflect.Field field;");
+            for (VariableElement field : fields) {
+                generate(out, type, binaryName, field);
+            }
+            out.println("        return plans;");
+            out.println("    }");
+            out.println();
+            out.println("}");
+        }
+    }
+
+    private void generate(PrintWriter out, TypeElement type, String binaryName, VariableElement field) {
+        String name = field.getSimpleName().toString();
+        Configurable annotation = field.getAnnotation(Configurable.class);
+        if (annotation == null) {
+            annotation = Configurable.DEFAULT;
+        }
+        Pair<String,String> constant = ConstMechanism.makeCandidate(binaryName, name, annotation);
+        out.println("        field = fields.get(" + literal(name) + ");");
+        out.println("        plans.add(new io.osowa.anyfig.FieldPlan(");
+        out.println("            field,");
+        generate(out, field.getAnnotation(Configurable.class));
+        if (isDirectlyAccessible(type, field)) {
+            boolean isStatic = field.getModifiers().contains(Modifier.STATIC);
+            String target = type.getQualifiedName().toString();
+            String ref = isStatic ? target + '.' + name : "((" + target + ") object)." + name;
+            String cast = processingEnv.getTypeUtils().erasure(field.asType()).toString();
+            out.println("            new io.osowa.anyfig.utils.FieldAccessor(field) {");
+            out.println("                @Override public Object get(Object object) { return " + ref + "; }");
+            out.println("                @Override public void set(Object object, Object value) { " + ref + " = (" + cast + ") value; }");
+            String primitive = getSpecializedName(field.asType().getKind());
+            if (primitive != null) {
+                String suffix = Character.toUpperCase(primitive.charAt(0)) + primitive.substring(1);
+                out.println("                @Override public " + primitive + " get" + suffix + "(Object object) { return " + ref + "; }");
+                out.println("                @Override public void set" + suffix + "(Object object, " + primitive + " value) { " + ref + " = value; }");
+            }
+            out.println("            },");
+        } else {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE,
+                "`" + name + "` isn't accessible outside its class, so it's set through a method handle", field);
+            out.println("            io.osowa.anyfig.utils.FieldAccessor.reflective(field),");
+        }
+        out.println("            " + literal(EnvVarMechanism.makeCandidates(binaryName, name, annotation)) + ',');
+        out.println("            " + literal(PropertyMechanism.makeCandidates(binaryName, name, annotation)) + ',');
+        out.println("            " + literal(ArgsMechanism.makeCandidates(binaryName, name, annotation)) + ',');
+        out.println("            " + literal(FileMechanism.makeCandidates(binaryName, name, annotation)) + ',');
+        out.println("            io.osowa.anyfig.utils.Pair.of(" + literal(constant.left) + ", " + literal(constant.right) + ")));");
+    }
+
+    // the field's annotation, as Utils.getAnnotation would find it at run time, but without reflection
+    private static void generate(PrintWriter out, Configurable annotation) {
+        if (annotation == null) {
+            out.println("            io.osowa.anyfig.Configurable.DEFAULT,");
+            return;
+        }
+        List<Method> methods = Stream.of(Configurable.class.getDeclaredMethods())
+            .sorted(Comparator.comparing(Method::getName))
+            .collect(Collectors.toList());
+        out.println("            new io.osowa.anyfig.Configurable() {");
+        out.println("                @Override public Class<? extends java.lang.annotation.Annotation> annotationType() {");
+        out.println("                    return io.osowa.anyfig.Configurable.class;");
+        out.println("                }");
+        for (Method method : methods) {
+            Object value;
+            try {
+                value = method.invoke(annotation);
+            } catch (ReflectiveOperationException exception) {
+                throw new IllegalStateException("Unable to read `" + method.getName() + '`', exception);
+            }
+            String type = method.getReturnType().getSimpleName();
+            String returned = value instanceof String ? literal((String) value) : String.valueOf(value);
+            out.println("                @Override public " + type + ' ' + method.getName() + "() {");
+            out.println("                    return " + returned + ';');
+            out.println("                }");
+        }
+        out.println("            },");
+    }
+
+    // can the binder, which lives in the same package as `type`, refer to the field by name?
+    private boolean isDirectlyAccessible(TypeElement type, VariableElement field) {
+        if (field.getModifiers().contains(Modifier.PRIVATE)) {
+            return false;
+        }
+        for (Element element = type; element instanceof TypeElement; element = element.getEnclosingElement()) {
+            if (element.getModifiers().contains(Modifier.PRIVATE)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // the primitive types for which FieldAccessor has specialized getters and setters
+    private static String getSpecializedName(TypeKind kind) {
+        switch (kind) {
+            case INT:     return "int";
+            case LONG:    return "long";
+            case DOUBLE:  return "double";
+            case BOOLEAN: return "boolean";
+            case CHAR:    return "char";
+            default:      return null;
+        }
+    }
+
+    private PackageElement getPackage(TypeElement type) {
+        return processingEnv.getElementUtils().getPackageOf(type);
+    }
+
+    private static String literal(String[] strings) {
+        return Stream.of(strings).map(BinderProcessor::literal).collect(Collectors.joining(", ", "new String[] { ", " }"));
+    }
+
+    private static String literal(String string) {
+        StringBuilder literal = new StringBuilder("\"");
+        for (char c : string.toCharArray()) {
+            switch (c) {
+                case '"':  literal.append("\\\""); break;
+                case '\\': literal.append("\\\\"); break;
+                case '\n': literal.append("\\n"); break;
+                case '\r': literal.append("\\r"); break;
+                case '\t': literal.append("\\t"); break;
+                default:
+                    if (c < ' ' || c > '~') {
+                        literal.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        literal.append(c);
+                    }
+            }
+        }
+        return literal.append('"').toString();
+    }
+
+}
@@ -0,0 +1,113 @@
+package io.osowa.anyfig.processor;
+
+import org.junit.Test;
+
+import io.osowa.anyfig.Anyfig;
+import io.osowa.anyfig.ClassPlan;
+import io.osowa.anyfig.Configurable;
+import io.osowa.anyfig.Delta;
+import io.osowa.anyfig.FieldPlan;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import javax.tools.JavaCompiler;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class BinderProcessorTest {
+
+    private static final String SOURCE =
+        "package sample;\n" +
+        "import io.osowa.anyfig.Configurable;\n" +
+        "public class Settings {\n" +
+        "    static final int DEFAULT_MAX_VEHICLES = 10;\n" +
+        "    static int maxVehicles;\n" +
+        "    @Configurable(argument = \"speed\")\n" +
+        "    public double minSpeed;\n" +
+        "    @Configurable(literal = true, value = \"secret\")\n" +
+        "    private String hidden;\n" +
+        "    @Configurable(ignore = true)\n" +
+        "    int ignored;\n" +
+        "    public String hidden() { return hidden; }\n" +
+        "}\n";
+
+    @Test
+    public void testGeneratedBinder() throws Exception {
+        Path dir = Files.createTempDirectory(getClass().getSimpleName());
+        Path source = dir.resolve("sample").resolve("Settings.java");
+        Files.createDirectories(source.getParent());
+        Files.write(source, SOURCE.getBytes(StandardCharsets.UTF_8));
+        compile(dir, source);
+        assertTrue(Files.exists(dir.resolve("sample").resolve("Settings$AnyfigBinder.class")));
+
+        try (URLClassLoader loader = new URLClassLoader(new URL[] { dir.toUri().toURL() }, getClass().getClassLoader())) {
+            Class<?> clazz = loader.loadClass("sample.Settings");
+            ClassPlan plan = ClassPlan.of(clazz);
+            assertEquals(3, plan.fields.size());
+
+            // non-private fields are set directly by the binder; private fields fall back to method handles
+            FieldPlan maxVehicles = plan.fields.get(0);
+            assertTrue(maxVehicles.accessor.getClass().getName().startsWith("sample.Settings$AnyfigBinder"));
+            assertArrayEquals(new String[] { "MAX_VEHICLES" }, maxVehicles.envvars);
+            assertEquals("DEFAULT_MAX_VEHICLES", maxVehicles.constant);
+            assertSame(Configurable.DEFAULT, maxVehicles.annotation);
+            FieldPlan minSpeed = plan.fields.get(1);
+            assertArrayEquals(new String[] { "speed" }, minSpeed.arguments);
+            FieldPlan hidden = plan.fields.get(2);
+            assertTrue(!hidden.accessor.getClass().getName().startsWith("sample.Settings$AnyfigBinder"));
+            // the annotations are generated too, rather than reflected over
+            assertTrue(minSpeed.annotation.getClass().getName().startsWith("sample.Settings$AnyfigBinder"));
+            assertEquals("speed", minSpeed.annotation.argument());
+            assertEquals(",", minSpeed.annotation.separator());
+            assertTrue(hidden.annotation.literal());
+            assertEquals("secret", hidden.annotation.value());
+            assertEquals(Configurable.class, hidden.annotation.annotationType());
+
+            // configuring through the binder has the usual semantics (including constants, which are found
+            // through the class's own loader)
+            Object settings = clazz.getDeclaredConstructor().newInstance();
+            List<Delta> deltas = new ArrayList<>();
+            Consumer<Delta> callback = deltas::add;
+            try (Anyfig anyfig = new Anyfig()) {
+                anyfig.configure(callback, new String[] { "--speed=12.5" }, settings);
+                assertEquals(2, deltas.size()); // object callbacks don't see static fields
+                assertEquals(3, anyfig.getHistory().size());
+            }
+            Field field = clazz.getDeclaredField("maxVehicles");
+            field.setAccessible(true);
+            assertEquals(10, field.getInt(null));
+            assertEquals(12.5, clazz.getField("minSpeed").getDouble(settings), 0);
+            assertEquals(12.5, minSpeed.accessor.getDouble(settings), 0);
+            assertEquals("secret", clazz.getMethod("hidden").invoke(settings));
+        }
+    }
+
+    private static void compile(Path dir, Path source) throws Exception {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        try (StandardJavaFileManager files = compiler.getStandardFileManager(null, null, null)) {
+            List<String> options = Arrays.asList(
+                "-classpath", System.getProperty("java.class.path"),
+                "-d", dir.toString(),
+                "-s", dir.toString());
+            JavaCompiler.CompilationTask task =
+                compiler.getTask(null, files, null, options, null, files.getJavaFileObjects(new File(source.toString())));
+            task.setProcessors(Arrays.asList(new BinderProcessor()));
+            assertTrue(task.call());
+        }
+    }
+
+}
@@ -1,18 +1,34 @@
 package io.osowa.anyfig;
 
+import com.google.common.cache.CacheStats;
+
 import io.osowa.anyfig.api.RemoteAPI;
 import io.osowa.anyfig.api.xe.XeRemoteAPI;
+import io.osowa.anyfig.mechanisms.Mechanism;
+import io.osowa.anyfig.mechanisms.Mechanisms;
+import io.osowa.anyfig.mechanisms.SourceSnapshot;
+import io.osowa.anyfig.utils.Pair;
 import io.osowa.anyfig.utils.Utils;
 
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
+import java.util.function.Predicate;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 // the universal configurer for anything & everything.
@@ -20,10 +36,22 @@ import java.util.stream.Stream;
 public class Anyfig implements AutoCloseable {
 
     private final Registrar registrar = new Registrar();
-    private final History history = new History();
-    private final Configurer configurer = new Configurer(this, registrar, history);
+    private final History history;
+    private final ConverterRegistry converters = new ConverterRegistry();
+    private final Coercer coercer = new Coercer(converters);
+    private final Configurer configurer;
     private final RemoteAPI remoteapi = new XeRemoteAPI();
 
+    public Anyfig() {
+        this(new History());
+    }
+
+    // with the given history, eg to choose its retention (see History)
+    public Anyfig(History history) {
+        this.history = history;
+        this.configurer = new Configurer(this, registrar, history, coercer);
+    }
+
     // A: register callbacks: five targets (fields, objects, classes, packages, global);
     // three kinds (Consumer<Delta>/Consumer<Failure>/BiConsumer<Delta,Failure>, Method, Logger);
     // and with and without arguments
@@ -65,7 +93,7 @@ public class Anyfig implements AutoCloseable {
     {
 
         Callbacks callbacks = new Callbacks(callback, failureCallback, callbackMethod, failureCallbackMethod);
-        Stream.of(fields).forEach(field -> registrar.register(callbacks, field));
+        registrar.register(callbacks, fields);
     }
 
     // // target: objects
@@ -104,7 +132,7 @@ public class Anyfig implements AutoCloseable {
             Object... objects)
     {
         Callbacks callbacks = new Callbacks(callback, failureCallback, callbackMethod, failureCallbackMethod);
-        Stream.of(objects).forEach(object -> registrar.register(callbacks, object));
+        registrar.register(callbacks, objects);
     }
 
     // // target: classes
@@ -143,7 +171,7 @@ public class Anyfig implements AutoCloseable {
         Class<?>... classes)
     {
         Callbacks callbacks = new Callbacks(callback, failureCallback, callbackMethod, failureCallbackMethod);
-        Stream.of(classes).forEach(clazz -> registrar.register(callbacks, clazz));
+        registrar.register(callbacks, classes);
     }
 
     // // target: packages
@@ -182,7 +210,7 @@ public class Anyfig implements AutoCloseable {
             Package... packages)
     {
         Callbacks callbacks = new Callbacks(callback, failureCallback, callbackMethod, failureCallbackMethod);
-        Stream.of(packages).forEach(pkg -> registrar.register(callbacks, pkg));
+        registrar.register(callbacks, packages);
     }
 
     // // target: global
@@ -222,7 +250,61 @@ public class Anyfig implements AutoCloseable {
         registrar.register(new Callbacks(callback, failureCallback, callbackMethod, failureCallbackMethod));
     }
 
-    // B. configure objects with the currently registered callbacks
+    // // coalescing: callbacks for any of the five targets that get one delta per `coalesce` window per field,
+    // // from the first delta's oldVal to the latest delta's newVal, rather than one per change (see Coalescer);
+    // // the history still records every change
+
+    public void register(Duration coalesce, Consumer<Delta> callback, Field... fields) {
+        registrar.register(coalescing(coalesce, callback), fields);
+    }
+
+    public void register(Duration coalesce, Consumer<Delta> callback, Object... objects) {
+        registrar.register(coalescing(coalesce, callback), objects);
+    }
+
+    public void register(Duration coalesce, Consumer<Delta> callback, Class<?>... classes) {
+        registrar.register(coalescing(coalesce, callback), classes);
+    }
+
+    public void register(Duration coalesce, Consumer<Delta> callback, Package... packages) {
+        registrar.register(coalescing(coalesce, callback), packages);
+    }
+
+    public void register(Duration coalesce, Consumer<Delta> callback) {
+        registrar.register(coalescing(coalesce, callback));
+    }
+
+    // the number of deltas whose callbacks were skipped, having been coalesced into a later delta
+    public long getCoalescedCallbacks() {
+        return configurer.getCoalesced();
+    }
+
+    private static Callbacks coalescing(Duration coalesce, Consumer<Delta> callback) {
+        return new Callbacks(Optional.of(callback), Optional.of(failure -> {}), Optional.empty(), Optional.empty(), coalesce);
+    }
+
+    // // target: batches
+
+    // invoked once per group of values set through the Remote API (see remoteSet), with all of the group's
+    // deltas, after the per-field callbacks; eg, to rebuild derived state once per PATCH rather than per field
+    public void registerBatch(Consumer<List<Delta>> callback) {
+        registrar.registerBatch(callback);
+    }
+
+    // the number of times the registrations (including the remote keys) have changed, and the number of fields
+    // whose callbacks have been resolved since (see Registrar)
+
+    public long getRegistrationVersion() {
+        return registrar.getVersion();
+    }
+
+    public int getMemoizedCallbacks() {
+        return registrar.getMemoized();
+    }
+
+    // B. configure objects with the currently registered callbacks; the sources (environment variables,
+    // properties and arguments) are captured once per call, or may be captured once with SourceSnapshot.of
+    // and shared across several calls
 
     private static final String[] EMPTY_ARGS = {};
 
@@ -231,7 +313,11 @@ public class Anyfig implements AutoCloseable {
     }
 
     public void configure(String[] args, Class<?>... classes) {
-        Stream.of(classes).forEach(clazz -> configurer.configure(args, clazz));
+        configure(SourceSnapshot.of(args), classes);
+    }
+
+    public void configure(SourceSnapshot sources, Class<?>... classes) {
+        Stream.of(classes).forEach(clazz -> configurer.configure(sources, clazz));
     }
 
     public void configure(Object... objects) {
@@ -239,7 +325,31 @@ public class Anyfig implements AutoCloseable {
     }
 
     public void configure(String[] args, Object... objects) {
-        Stream.of(objects).forEach(object -> configurer.configure(args, object));
+        configure(SourceSnapshot.of(args), objects);
+    }
+
+    public void configure(SourceSnapshot sources, Object... objects) {
+        Stream.of(objects).forEach(object -> configurer.configure(sources, object));
+    }
+
+    // bulk configuration: fields are resolved and set in parallel on the executor (by default, the common
+    // ForkJoinPool), while the history and callbacks are updated on the calling thread in input order (or, if
+    // not `ordered`, in completion order)
+
+    public void configureAll(Iterable<?> objects) {
+        configureAll(EMPTY_ARGS, objects);
+    }
+
+    public void configureAll(String[] args, Iterable<?> objects) {
+        configureAll(args, objects, ForkJoinPool.commonPool());
+    }
+
+    public void configureAll(String[] args, Iterable<?> objects, Executor executor) {
+        configureAll(SourceSnapshot.of(args), objects, executor, true);
+    }
+
+    public void configureAll(SourceSnapshot sources, Iterable<?> objects, Executor executor, boolean ordered) {
+        configurer.configureAll(sources, objects, executor, ordered);
     }
 
     public void configure(Field... fields) {
@@ -247,7 +357,11 @@ public class Anyfig implements AutoCloseable {
     }
 
     public void configure(String[] args, Field... fields) {
-        Stream.of(fields).forEach(field -> configurer.configure(args, field));
+        configure(SourceSnapshot.of(args), fields);
+    }
+
+    public void configure(SourceSnapshot sources, Field... fields) {
+        Stream.of(fields).forEach(field -> configurer.configure(sources, field));
     }
 
     // C. helpful shortcut: register additional callbacks and configure the given object/field/class
@@ -447,6 +561,115 @@ public class Anyfig implements AutoCloseable {
         configure(args, classes);
     }
 
+    // D. register a converter from strings to the given type, overriding the built-in conversion (or
+    // JSON, as a last resort); not consulted for numbers, booleans and characters
+
+    public <T> void registerConverter(Class<T> clazz, Converter<T> converter) {
+        converters.register(clazz, converter);
+        coercer.invalidateCache();
+    }
+
+    // memoize (up to `maximumSize`) coercions of strings into immutable types: primitives and their wrappers,
+    // strings, enums, the other built-in converted types, and types marked @Immutable.  useful when the same
+    // value is coerced for many objects, eg with configureAll
+
+    public void enableCoercionCache(long maximumSize) {
+        coercer.enableCache(maximumSize);
+    }
+
+    public void disableCoercionCache() {
+        coercer.disableCache();
+    }
+
+    public CacheStats getCoercionCacheStats() {
+        return coercer.getCacheStats();
+    }
+
+    // E. reload configuration files and directories (see FileMechanism and DirectoryMechanism): re-index the
+    // files and re-read the `..data` bundles that have changed, and re-resolve just the fields whose keys
+    // changed, with the usual callbacks and history; either on demand, or whenever the files change (once a
+    // burst of writes has been quiet for `debounce`)
+
+    public static final Duration DEFAULT_DEBOUNCE = Duration.ofMillis(200);
+
+    private FileWatcher watcher;
+
+    // returns the number of fields re-resolved
+    public synchronized int reloadFiles() {
+        return configurer.reconfigure();
+    }
+
+    public void enableFileWatching() {
+        enableFileWatching(DEFAULT_DEBOUNCE);
+    }
+
+    public synchronized void enableFileWatching(Duration debounce) {
+        disableFileWatching();
+        watcher = new FileWatcher(this, debounce);
+    }
+
+    public synchronized void disableFileWatching() {
+        if (watcher != null) {
+            watcher.stop();
+            watcher = null;
+        }
+    }
+
+    // F. the mechanisms from which values are retrieved, in order of precedence; by default, as described by
+    // RootMechanism (including any custom mechanisms discovered with ServiceLoader)
+
+    public List<Mechanism> getMechanisms() {
+        return configurer.getMechanisms();
+    }
+
+    public void setMechanisms(List<Mechanism> mechanisms) {
+        configurer.setMechanisms(mechanisms);
+    }
+
+    public void setMechanisms(Mechanism... mechanisms) {
+        setMechanisms(Arrays.asList(mechanisms));
+    }
+
+    // G. asynchronous callbacks: by default, callbacks run on the thread that configured the field (including
+    // the Remote API's request threads); once enabled, they run on the dispatcher's threads instead, in order for
+    // each field (see Dispatcher).  the history is still recorded on the configuring thread.  disabling runs the
+    // callbacks already dispatched before returning
+
+    private Dispatcher dispatcher;
+
+    public void enableAsyncCallbacks() {
+        enableAsyncCallbacks(new Dispatcher());
+    }
+
+    public synchronized void enableAsyncCallbacks(Dispatcher dispatcher) {
+        disableAsyncCallbacks();
+        this.dispatcher = dispatcher;
+        configurer.setDispatcher(dispatcher);
+    }
+
+    public synchronized void disableAsyncCallbacks() {
+        if (dispatcher != null) {
+            configurer.setDispatcher(null);
+            dispatcher.close();
+            dispatcher = null;
+        }
+    }
+
+    // wait until the callbacks dispatched so far have run, delivering any coalesced deltas now
+    public void flushCallbacks() {
+        configurer.flushCoalesced();
+        Dispatcher dispatcher = configurer.getDispatcher();
+        if (dispatcher != null) {
+            dispatcher.flush();
+        }
+    }
+
+    // the dispatcher's queue depth, callback latency, etc, if callbacks are asynchronous
+    public Optional<Dispatcher.Stats> getCallbackStats() {
+        Dispatcher dispatcher = configurer.getDispatcher();
+        return dispatcher == null ? Optional.empty() : Optional.of(dispatcher.getStats());
+    }
+
     // configuring the Remote API
 
     /**
@@ -457,6 +680,7 @@ public class Anyfig implements AutoCloseable {
      * - anyfig.remote-api.port / ANYFIG_REMOTE_API_PORT
      * - anyfig.remote-api.dataDir / ANYFIG_REMOTE_API_DATA_DIR
      * - anyfig.remote-api.peers / ANYFIG_REMOTE_API_PEERS
+     * - anyfig.remote-api.persistent / ANYFIG_REMOTE_API_PERSISTENT
      * - anyfig.remote-api.token / ANYFIG_REMOTE_API_TOKEB
      */
     public RemoteAPI.Config enableRemoteAPI() {
@@ -471,6 +695,7 @@ public class Anyfig implements AutoCloseable {
      * - anyfig.remote-api.port / ANYFIG_REMOTE_API_PORT / --anyfigRemoteAPIPort
      * - anyfig.remote-api.dataDir / ANYFIG_REMOTE_API_DATA_DIR / --anyfigRemoteAPIDataDir
      * - anyfig.remote-api.peers / ANYFIG_REMOTE_API_PEERS / --anyfigRemoteAPIPeers
+     * - anyfig.remote-api.persistent / ANYFIG_REMOTE_API_PERSISTENT / --anyfigRemoteAPIPersistent
      * - anyfig.remote-api.token / ANYFIG_REMOTE_API_TOKEB / --anyfigRemoteAPIToken
      */
     public RemoteAPI.Config enableRemoteAPI(String[] args) {
@@ -488,6 +713,9 @@ public class Anyfig implements AutoCloseable {
      */
     public RemoteAPI.Config enableRemoteAPI(RemoteAPI.Config config) {
         disableRESTAPI(); // just in case...
+        if (config.persistent) {
+            enableHistoryLog(Paths.get(config.dataDir, "history"));
+        }
         remoteapi.start(config, this);
         return config;
     }
@@ -506,6 +734,10 @@ public class Anyfig implements AutoCloseable {
     @Override
     public void close() throws Exception {
         stop();
+        disableFileWatching();
+        disableHistoryLog();
+        configurer.flushCoalesced();
+        disableAsyncCallbacks();
     }
 
     // direct manipulation of values by REST keys; intended for
@@ -526,15 +758,119 @@ public class Anyfig implements AutoCloseable {
         return registrar.getRemoteKey(key);
     }
 
-    // set an object as requested to do so by the Remote API
+    // set an object as requested to do so by the Remote API; the change is recorded in the history and the
+    // callbacks are invoked just as for any other mechanism (see Mechanisms.REMOTE)
     public void remoteSet(Field field, Object value) throws Exception {
-        Utils.setField(field, value);
+        remoteSet(Collections.singletonMap(field, value));
+    }
+
+    // set several fields as one transaction: all or nothing, in order, returning the deltas (likewise in order)
+    public List<Delta> remoteSet(Map<Field,Object> values) {
+        return configurer.remoteSet(values);
     }
 
-    // history
+    // history: the most recent deltas, oldest first (see History for the retention).  the history may also be
+    // logged to a directory (see HistoryLog), so that it, and the values set through the Remote API, survive a
+    // restart: enabling the log restores the logged history and replays the latest remote values.  so enable it
+    // before configuring anything, so that the replayed values are set before any callbacks fire
+
+    private HistoryLog historyLog = null;
+
+    public synchronized void enableHistoryLog(Path directory) {
+        enableHistoryLog(directory, HistoryLog.DEFAULT_SEGMENT_SIZE);
+    }
+
+    public synchronized void enableHistoryLog(Path directory, long segmentSize) {
+        disableHistoryLog();
+        HistoryLog log = new HistoryLog(directory, segmentSize, history.getCapacity());
+        Map<Field,Pair<Object,Mechanisms>> values = log.replay(history);
+        history.setLog(log);
+        historyLog = log;
+        configurer.replay(values);
+    }
+
+    public synchronized void disableHistoryLog() {
+        if (historyLog != null) {
+            history.setLog(null);
+            historyLog.close();
+            historyLog = null;
+        }
+    }
 
     public List<Delta> getHistory() {
-        return Collections.unmodifiableList(history.get());
+        return history.get();
+    }
+
+    // the deltas to the field with timestamps in [from, to), in timestamp order
+    public List<Delta> getHistory(Field field, long from, long to) {
+        return history.get(field, from, to);
+    }
+
+    // one page of the deltas to the field (or to any field, if null) with timestamps in [from, to), in timestamp
+    // order, starting after the cursor (the previous page's `next`, or null for the first page)
+    public History.Page getHistory(Field field, long from, long to, String cursor, int limit) {
+        return history.get(field, from, to, cursor, limit);
+    }
+
+    // the latest delta to the field, if any is still in the history
+    public Optional<Delta> getLatest(Field field) {
+        return history.getLatest(field);
+    }
+
+    // the deltas with timestamps at or after `timestamp`, in timestamp order
+    public List<Delta> getChangedSince(long timestamp) {
+        return history.getChangedSince(timestamp);
+    }
+
+    // rollback: restore static fields to their values at an earlier point in the history, as one transaction (see
+    // remoteSet), with the ROLLBACK mechanism.  a field's value at that point is the oldVal of its first delta
+    // after it, and of those fields only the ones whose value now differs are set (and get deltas).  optionally,
+    // only the fields matching a predicate are restored
+
+    // undo every delta after `timestamp`
+    public List<Delta> rollbackTo(long timestamp) {
+        return rollbackTo(timestamp, field -> true);
+    }
+
+    public List<Delta> rollbackTo(long timestamp, Predicate<Field> fields) {
+        if (!history.covers(timestamp)) {
+            throw new ConfigurationException("The history no longer reaches back to " + timestamp);
+        }
+        if (timestamp == Long.MAX_VALUE) {
+            return Collections.emptyList();
+        }
+        return rollback(history.getChangedSince(timestamp + 1), fields);
+    }
+
+    // undo the latest `n` deltas to static fields (or rather, to those of them that pass the predicate)
+    public List<Delta> rollback(int n) {
+        return rollback(n, field -> true);
+    }
+
+    public List<Delta> rollback(int n, Predicate<Field> fields) {
+        List<Delta> deltas = history.getChangedSince(Long.MIN_VALUE).stream()
+            .filter(delta -> Utils.isStatic(delta.field) && fields.test(delta.field))
+            .collect(Collectors.toList());
+        if (n < 0 || n > deltas.size()) {
+            throw new ConfigurationException("Can't roll back " + n + " deltas; the history holds " + deltas.size());
+        }
+        return rollback(deltas.subList(deltas.size() - n, deltas.size()), fields);
+    }
+
+    private List<Delta> rollback(List<Delta> undone, Predicate<Field> fields) {
+        Map<Field,Object> values = new LinkedHashMap<>();
+        for (Delta delta : undone) {
+            // not putIfAbsent: the value at that point may well have been null
+            if (Utils.isStatic(delta.field) && fields.test(delta.field) && !values.containsKey(delta.field)) {
+                values.put(delta.field, delta.oldVal);
+            }
+        }
+        return configurer.set(values, Mechanisms.ROLLBACK);
+    }
+
+    // the number of deltas that have been dropped from the history to make room for newer ones
+    public long getDroppedHistory() {
+        return history.getDropped();
     }
 
 }
@@ -0,0 +1,17 @@
+package io.osowa.anyfig;
+
+import java.util.List;
+
+// a Binder supplies the plans for a class's configurable fields without reflecting over the class.  binders
+// are generated at compile time by the anyfig-processor annotation processor, as a class named after the
+// configured class plus SUFFIX (eg some.pkg.Outer$Inner$AnyfigBinder); ClassPlan uses a binder when one is
+// on the classpath, and otherwise falls back to reflection.
+
+public interface Binder {
+
+    String SUFFIX = "$AnyfigBinder";
+
+    // the plans for the configurable fields of `clazz`, in declaration order
+    List<FieldPlan> bind(Class<?> clazz) throws Exception;
+
+}
@@ -5,6 +5,7 @@ import io.osowa.anyfig.utils.Pair;
 import io.osowa.anyfig.utils.Possible;
 
 import java.lang.reflect.Method;
+import java.time.Duration;
 import java.util.Optional;
 import java.util.function.Consumer;
 
@@ -20,10 +21,25 @@ public class Callbacks {
                 Optional<Method>>>
         callbacks;
 
+    // deltas within this window of each other are coalesced into one (see Coalescer); zero for none
+    public final Duration coalesce;
+
     public Callbacks(
         Optional<Consumer<Delta>> callback, Optional<Consumer<Failure>> failureCallback,
         Optional<Method> callbackMethod, Optional<Method> failureCallbackMethod)
     {
+        this(callback, failureCallback, callbackMethod, failureCallbackMethod, Duration.ZERO);
+    }
+
+    public Callbacks(
+        Optional<Consumer<Delta>> callback, Optional<Consumer<Failure>> failureCallback,
+        Optional<Method> callbackMethod, Optional<Method> failureCallbackMethod,
+        Duration coalesce)
+    {
+        if (coalesce.isNegative()) {
+            throw new ConfigurationException("Coalescing window must not be negative, not " + coalesce);
+        }
+        this.coalesce = coalesce;
         Possible<Pair<Optional<Consumer<Delta>>,Optional<Consumer<Failure>>>> callbackPair = Possible.absent();
         if (callback.isPresent() || failureCallback.isPresent()) {
             callbackPair = Possible.of(Pair.of(callback, failureCallback));
@@ -0,0 +1,146 @@
+package io.osowa.anyfig;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
+import io.osowa.anyfig.utils.FieldAccessor;
+import io.osowa.anyfig.utils.Utils;
+
+import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+// the configurable fields of a class, reflected over (or bound by a generated Binder) once and then cached.
+// classes are held weakly (and plans softly, since each plan refers back to its class) so that caching a plan
+// never prevents a class from being unloaded.
+
+public class ClassPlan {
+
+    private static final LoadingCache<Class<?>,ClassPlan> PLANS =
+        CacheBuilder.newBuilder()
+            .weakKeys()
+            .softValues()
+            .build(CacheLoader.from(ClassPlan::new));
+
+    public static ClassPlan of(Class<?> clazz) {
+        return PLANS.getUnchecked(clazz);
+    }
+
+    // the plan for a single field, even if the field is not one that Anyfig would configure on its own
+    public static FieldPlan of(Field field) {
+        ClassPlan classPlan = of(field.getDeclaringClass());
+        FieldPlan plan = classPlan.get(field);
+        return plan != null ? plan : new FieldPlan(field, classPlan.getAccessor(field));
+    }
+
+    // the accessor for any field (configurable or not, eg constants), built at most once per field
+    public static FieldAccessor accessor(Field field) {
+        return of(field.getDeclaringClass()).getAccessor(field);
+    }
+
+    public final Class<?> clazz;
+    public final List<FieldPlan> fields;       // all configurable fields, in declaration order
+    public final List<FieldPlan> staticFields; // just the static ones
+
+    private final Map<Field,FieldPlan> plans = new HashMap<>();
+    private final Map<String,FieldAccessor> accessors = new ConcurrentHashMap<>();
+
+    private ClassPlan(Class<?> clazz) {
+        this.clazz = clazz;
+        Optional<Binder> binder = findBinder(clazz);
+        List<FieldPlan> fields;
+        if (binder.isPresent()) {
+            try {
+                fields = binder.get().bind(clazz);
+            } catch (Exception exception) {
+                throw new ConfigurationException("Failure while binding class `" + clazz.getName() + '`', exception);
+            }
+        } else {
+            fields = new ArrayList<>();
+            for (Field field : clazz.getDeclaredFields()) {
+                if (isConfigurable(field)) {
+                    fields.add(new FieldPlan(field, getAccessor(field)));
+                }
+            }
+        }
+        List<FieldPlan> staticFields = new ArrayList<>();
+        for (FieldPlan plan : fields) {
+            plans.put(plan.field, plan);
+            accessors.putIfAbsent(plan.field.getName(), plan.accessor);
+            if (plan.isStatic) {
+                staticFields.add(plan);
+            }
+        }
+        this.fields = Collections.unmodifiableList(fields);
+        this.staticFields = Collections.unmodifiableList(staticFields);
+    }
+
+    // the generated Binder for the given class, if there is one on the classpath
+    private static Optional<Binder> findBinder(Class<?> clazz) {
+        Class<?> binder;
+        try {
+            binder = Class.forName(clazz.getName() + Binder.SUFFIX, true, clazz.getClassLoader());
+        } catch (ClassNotFoundException ignored) {
+            return Optional.empty(); // no big deal; we'll just reflect over the class instead
+        }
+        try {
+            return Optional.of((Binder) binder.getDeclaredConstructor().newInstance());
+        } catch (Exception exception) {
+            throw new ConfigurationException("Unable to instantiate binder `" + binder.getName() + '`', exception);
+        }
+    }
+
+    // the plan for the given field, or null if the field is not configurable
+    public FieldPlan get(Field field) {
+        return plans.get(field);
+    }
+
+    private FieldAccessor getAccessor(Field field) {
+        return accessors.computeIfAbsent(field.getName(), name -> FieldAccessor.reflective(field));
+    }
+
+    private static boolean isConfigurable(Field field) {
+        AnnotatedElement[] elements = { field, field.getDeclaringClass() };
+        return
+            !Utils.isFinal(field) &&
+            Stream.of(elements).allMatch(element ->
+                !element.isAnnotationPresent(Configurable.class) ||
+                !element.getAnnotation(Configurable.class).ignore()) &&
+            !isIgnored(field.getDeclaringClass());
+    }
+
+    // is the class's package, or any ancestor package, marked "ignore"?  (just as callbacks registered for a
+    // package apply to all its descendant packages.)  ancestors needn't contain any classes of their own, so
+    // their annotations are read from their package-info classes
+    private static boolean isIgnored(Class<?> clazz) {
+        Package pkg = clazz.getPackage();
+        if (pkg == null) {
+            return false; // eg, classes in the default package
+        }
+        if (pkg.isAnnotationPresent(Configurable.class) && pkg.getAnnotation(Configurable.class).ignore()) {
+            return true;
+        }
+        String name = pkg.getName();
+        for (int lastdot = name.lastIndexOf('.'); lastdot != -1; lastdot = name.lastIndexOf('.')) {
+            name = name.substring(0, lastdot);
+            try {
+                Class<?> info = Class.forName(name + ".package-info", false, clazz.getClassLoader());
+                if (info.isAnnotationPresent(Configurable.class) && info.getAnnotation(Configurable.class).ignore()) {
+                    return true;
+                }
+            } catch (ClassNotFoundException ignored) {
+                // no package-info, so no annotation
+            }
+        }
+        return false;
+    }
+
+}
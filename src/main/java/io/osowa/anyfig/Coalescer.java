@@ -0,0 +1,134 @@
+package io.osowa.anyfig;
+
+import java.lang.reflect.Field;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+// coalesces the deltas delivered to callbacks that were registered with a window (see Callbacks.coalesce): the
+// first delta to a field (or to a field of an object) opens a window, and when it closes, the callbacks get one
+// delta, with the first delta's oldVal and the latest delta's newVal (or none, if those are equal).  so
+// callbacks see each value at most one window late, and never on the configuring thread.  the windows are
+// closed on one shared daemon thread, so the coalesced deltas for a field are delivered in order.  failures
+// aren't coalesced.
+
+class Coalescer {
+
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, Coalescer.class.getName());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // the callbacks and the field (and object, if any) whose deltas are being coalesced
+    private static class Key {
+
+        final Callbacks callbacks;
+        final Field field;
+        final Object object;
+
+        Key(Callbacks callbacks, Delta delta) {
+            this.callbacks = callbacks;
+            this.field = delta.field;
+            this.object = delta.object.orElse(null);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) other;
+            return callbacks == key.callbacks && field.equals(key.field) && object == key.object;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(System.identityHashCode(callbacks), field, System.identityHashCode(object));
+        }
+
+    }
+
+    // an open window: the first and latest deltas, and where to deliver the coalesced delta
+    private static class Window {
+
+        final Delta first;
+        volatile Delta latest;
+        final Consumer<Delta> deliver;
+
+        Window(Delta first, Consumer<Delta> deliver) {
+            this.first = first;
+            this.latest = first;
+            this.deliver = deliver;
+        }
+
+    }
+
+    private final ConcurrentMap<Key,Window> windows = new ConcurrentHashMap<>();
+    private final LongAdder coalesced = new LongAdder();
+
+    // deliver the delta to the callbacks once their window closes, along with any later deltas
+    void coalesce(Callbacks callbacks, Delta delta, Consumer<Delta> deliver) {
+        Key key = new Key(callbacks, delta);
+        Window window = windows.compute(key, (ignored, open) -> {
+            if (open == null) {
+                return new Window(delta, deliver);
+            }
+            open.latest = delta;
+            coalesced.increment();
+            return open;
+        });
+        if (window.first == delta) {
+            Duration coalesce = callbacks.coalesce;
+            TIMER.schedule(() -> {
+                try {
+                    close(key, window);
+                } catch (RuntimeException exception) {
+                    // eg, a failure callback threw: there's no-one to throw it to
+                    Thread thread = Thread.currentThread();
+                    thread.getUncaughtExceptionHandler().uncaughtException(thread, exception);
+                }
+            }, coalesce.toNanos(), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    // close every window now, delivering the coalesced deltas on this thread
+    void flush() {
+        for (Key key : windows.keySet()) {
+            Window window = windows.get(key);
+            if (window != null) {
+                close(key, window);
+            }
+        }
+    }
+
+    // the number of deltas that were absorbed into a later delta, so their callbacks weren't invoked
+    long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    private void close(Key key, Window window) {
+        if (!windows.remove(key, window)) {
+            return; // already closed (by a flush)
+        }
+        Delta first = window.first;
+        Delta latest = window.latest;
+        if (first == latest) {
+            window.deliver.accept(first);
+        } else if (!Objects.deepEquals(first.oldVal, latest.newVal)) {
+            Delta delta = new Delta(
+                latest.object, latest.annotation, latest.field, latest.mechanism, first.oldVal, latest.newVal);
+            delta.timestamp = latest.timestamp;
+            window.deliver.accept(delta);
+        } else {
+            coalesced.increment(); // back where it started: nothing to deliver
+        }
+    }
+
+}
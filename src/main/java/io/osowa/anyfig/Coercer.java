@@ -1,110 +1,411 @@
 package io.osowa.anyfig;
 
-import com.google.gson.Gson;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.gson.reflect.TypeToken;
 
-// coerce any value into another type, with special treatment for null (zero for numeric types and
-// false for booleans) and parsing of strings as JSON for creating arbitrary objects
+import io.osowa.anyfig.ConverterRegistry.JsonConverter;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.reflect.Array;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.URI;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.logging.Level;
+
+// coerce any value into another type, with special treatment for null (zero for numeric types, false for
+// booleans and '\0' for characters).  numbers, booleans and characters are handled here; everything else is
+// converted from its string form by a ConverterRegistry.  the coercion for each target type is resolved once
+// and cached.  generic types (eg, List<Peer>) are parsed as JSON against the full type.  values may also be
+// Readers, which are streamed when parsed as JSON, and otherwise read into a string.  optionally, coercions of
+// strings into immutable types are memoized (see enableCache).  arrays and collections may be coerced from
+// delimited strings (eg, "8080,8081") as well as from JSON arrays.
 
 public class Coercer {
 
-    private static final Gson GSON = new Gson();
+    // a resolved coercion for one target type
+    private interface Coercion {
+        Object coerce(Object value) throws Exception;
+    }
+
+    private final ConverterRegistry converters;
+
+    private final ClassValue<Coercion> coercions = new ClassValue<Coercion>() {
+        @Override
+        protected Coercion computeValue(Class<?> clazz) {
+            return makeCoercion(clazz);
+        }
+    };
+
+    public Coercer() {
+        this(new ConverterRegistry());
+    }
+
+    public Coercer(ConverterRegistry converters) {
+        this.converters = converters;
+    }
+
+    // a bounded cache of strings already coerced into immutable types, or null if caching is disabled
+    private volatile Cache<Key,Object> cache = null;
+
+    public void enableCache(long maximumSize) {
+        cache = CacheBuilder.newBuilder().maximumSize(maximumSize).recordStats().build();
+    }
+
+    public void disableCache() {
+        cache = null;
+    }
+
+    // eg, after registering a converter that changes how strings are coerced
+    public void invalidateCache() {
+        Cache<Key,Object> cache = this.cache;
+        if (cache != null) {
+            cache.invalidateAll();
+        }
+    }
+
+    public CacheStats getCacheStats() {
+        Cache<Key,Object> cache = this.cache;
+        return cache == null ? new CacheStats(0, 0, 0, 0, 0, 0) : cache.stats();
+    }
 
     public <T> T coerce(Object value, Class<T> clazz) {
-        // handle null, with special treatment for numbers & booleans
-        if (value == null) {
-            if (isNumeric(clazz)) {
-                return (T) cast(0, (Class<? extends Number>) clazz);
+        return (T) coerce(value, (Type) clazz);
+    }
+
+    public Object coerce(Object value, Type type) {
+        return coerce(value, type, Configurable.DEFAULT.separator());
+    }
+
+    public Object coerce(Object value, Type type, String separator) {
+        if (value instanceof String && isDelimited((String) value, type)) {
+            return split((String) value, type, separator);
+        }
+        Cache<Key,Object> cache = this.cache;
+        if (cache == null || !(value instanceof String) || !(type instanceof Class) || !IMMUTABLE.get((Class<?>) type)) {
+            return compute(value, type);
+        }
+        Key key = new Key((String) value, type);
+        Object coerced = cache.getIfPresent(key);
+        if (coerced == null) {
+            coerced = compute(value, type);
+            if (coerced != null) { // guava caches don't hold nulls, but those are cheap anyway
+                cache.put(key, coerced);
+            }
+        }
+        return coerced;
+    }
+
+    private Object compute(Object value, Type type) {
+        if (type instanceof Class) {
+            Class<?> clazz = (Class<?>) type;
+            try {
+                return coercions.get(clazz).coerce(value);
+            } catch (RuntimeException exception) {
+                throw exception;
+            } catch (Exception exception) {
+                throw new ConfigurationException("Unable to coerce `" + value + "` to " + clazz.getName(), exception);
+            }
+        }
+        if (value == null || TypeToken.get(type).getRawType().isInstance(value)) {
+            return value;
+        }
+        try {
+            JsonConverter<?> json = converters.getJsonConverter(type);
+            return value instanceof Reader ? json.read((Reader) value) : json.convert(value.toString());
+        } catch (IOException exception) {
+            throw new ConfigurationException("Unable to coerce value to " + type, exception);
+        }
+    }
+
+    // is the value a delimited list for an array or collection type (rather than, say, a JSON array)?
+    private static boolean isDelimited(String value, Type type) {
+        Class<?> raw;
+        if (type instanceof Class) {
+            raw = (Class<?>) type;
+        } else if (type instanceof ParameterizedType && ((ParameterizedType) type).getActualTypeArguments()[0] instanceof Class) {
+            raw = (Class<?>) ((ParameterizedType) type).getRawType();
+        } else {
+            return false;
+        }
+        if (!raw.isArray() && raw != List.class && raw != Set.class && raw != Collection.class && raw != Iterable.class) {
+            return false;
+        }
+        String trimmed = value.trim();
+        return !trimmed.startsWith("[") && !trimmed.equals("null");
+    }
+
+    // primitive arrays are filled directly; other elements are coerced individually
+    private Object split(String value, Type type, String separator) {
+        String[] tokens = tokenize(value, separator);
+        int n = tokens.length;
+        if (type instanceof Class) {
+            Class<?> clazz = (Class<?>) type;
+            if (!clazz.isArray()) {
+                return fill(new ArrayList<>(n), tokens, clazz == Set.class, String.class);
+            }
+            Class<?> component = clazz.getComponentType();
+            if (component == Integer.TYPE) {
+                int[] array = new int[n];
+                for (int i = 0; i < n; i++) {
+                    array[i] = coerceInt(tokens[i]);
+                }
+                return array;
+            }
+            if (component == Long.TYPE) {
+                long[] array = new long[n];
+                for (int i = 0; i < n; i++) {
+                    array[i] = coerceLong(tokens[i]);
+                }
+                return array;
+            }
+            if (component == Double.TYPE) {
+                double[] array = new double[n];
+                for (int i = 0; i < n; i++) {
+                    array[i] = coerceDouble(tokens[i]);
+                }
+                return array;
+            }
+            if (component == Float.TYPE) {
+                float[] array = new float[n];
+                for (int i = 0; i < n; i++) {
+                    array[i] = (float) coerceDouble(tokens[i]);
+                }
+                return array;
             }
-            if (isBoolean(clazz)) {
-                return (T) new Boolean(false);
+            if (component == Short.TYPE) {
+                short[] array = new short[n];
+                for (int i = 0; i < n; i++) {
+                    array[i] = (short) coerceInt(tokens[i]);
+                }
+                return array;
             }
-            if (isCharacter(clazz)) {
-                return (T) new Character((char)0);
+            if (component == Byte.TYPE) {
+                byte[] array = new byte[n];
+                for (int i = 0; i < n; i++) {
+                    array[i] = (byte) coerceInt(tokens[i]);
+                }
+                return array;
             }
-            return null;
-        }
-        // value is already an acceptable type
-        if (clazz.isAssignableFrom(value.getClass())) {
-            return (T) value;
-        }
-        // coerce to a number
-        if (isNumeric(clazz)) {
-            String s = value.toString();
-            Number number = 0; // special case: coerce empty string to zero
-            if (!s.isEmpty()) {
-                number = isNumeric(value) ? (Number) value : Double.parseDouble(s);
+            if (component == Boolean.TYPE) {
+                boolean[] array = new boolean[n];
+                for (int i = 0; i < n; i++) {
+                    array[i] = coerceBoolean(tokens[i]);
+                }
+                return array;
             }
-            return (T) cast(number, (Class<? extends Number>) clazz);
-        }
-        // coerce to a boolean
-        if (isBoolean(clazz)) {
-            Boolean bool = isBoolean(value) ? (Boolean) value : Boolean.parseBoolean(value.toString());
-            return (T) bool;
-        }
-        // coerce to char
-        if (isCharacter(clazz)) {
-            if (isCharacter(value)) {
-                return (T) new Character((char)value);
-            } else {
-                String s = value.toString();
-                char chars[] = { 0 };
-                if (!s.isEmpty()) {
-                    s.getChars(0, 1, chars, 0);
+            if (component == Character.TYPE) {
+                char[] array = new char[n];
+                for (int i = 0; i < n; i++) {
+                    array[i] = coerceChar(tokens[i]);
                 }
-                return (T) new Character(chars[0]);
+                return array;
+            }
+            Object array = Array.newInstance(component, n);
+            for (int i = 0; i < n; i++) {
+                Array.set(array, i, coerce(tokens[i], component));
             }
+            return array;
         }
-        // interpret everything else as JSON
-        return GSON.fromJson(value.toString(), clazz);
+        ParameterizedType parameterized = (ParameterizedType) type;
+        boolean isSet = parameterized.getRawType() == Set.class;
+        return fill(new ArrayList<>(n), tokens, isSet, parameterized.getActualTypeArguments()[0]);
     }
 
-    private boolean isNumeric(Object value) {
-        return isNumeric(value.getClass());
+    private Collection<Object> fill(List<Object> list, String[] tokens, boolean isSet, Type element) {
+        for (String token : tokens) {
+            list.add(coerce(token, element));
+        }
+        return isSet ? new LinkedHashSet<>(list) : list;
     }
 
-    private boolean isNumeric(Class<?> clazz) {
-        return
-            clazz == Byte.class || clazz == Byte.TYPE ||
-            clazz == Short.class || clazz == Short.TYPE ||
-            clazz == Integer.class || clazz == Integer.TYPE ||
-            clazz == Long.class || clazz == Long.TYPE ||
-            clazz == Float.class || clazz == Float.TYPE ||
-            clazz == Double.class || clazz == Double.TYPE;
+    // split on a literal separator, trimming each element; a blank value has no elements
+    private static String[] tokenize(String value, String separator) {
+        if (value.trim().isEmpty()) {
+            return new String[0];
+        }
+        if (separator == null || separator.isEmpty()) {
+            return new String[] { value.trim() };
+        }
+        int n = 1;
+        for (int i = value.indexOf(separator); i != -1; i = value.indexOf(separator, i + separator.length())) {
+            n++;
+        }
+        String[] tokens = new String[n];
+        int from = 0;
+        for (int t = 0; t < n; t++) {
+            int to = t == n - 1 ? value.length() : value.indexOf(separator, from);
+            tokens[t] = value.substring(from, to).trim();
+            from = to + separator.length();
+        }
+        return tokens;
     }
 
-    private <T extends Number> Number cast(Number number, Class<T> clazz) {
-        if (clazz == Byte.class || clazz == Byte.TYPE) {
-            return new Byte(number.byteValue());
+    // types whose instances can safely be shared between fields
+    private static final ClassValue<Boolean> IMMUTABLE = new ClassValue<Boolean>() {
+        @Override
+        protected Boolean computeValue(Class<?> clazz) {
+            return
+                clazz.isPrimitive() ||
+                clazz == Integer.class || clazz == Long.class || clazz == Double.class || clazz == Float.class ||
+                clazz == Short.class || clazz == Byte.class || clazz == Boolean.class || clazz == Character.class ||
+                clazz == String.class || Enum.class.isAssignableFrom(clazz) ||
+                clazz == Duration.class || clazz == Path.class || clazz == URI.class || clazz == InetAddress.class ||
+                clazz == BigDecimal.class || clazz == BigInteger.class || clazz == Level.class ||
+                clazz.isAnnotationPresent(Immutable.class);
         }
-        if (clazz == Short.class || clazz == Short.TYPE) {
-            return new Short(number.shortValue());
+    };
+
+    private static class Key {
+
+        private final String value;
+        private final Type type;
+
+        private Key(String value, Type type) {
+            this.value = value;
+            this.type = type;
+        }
+
+        @Override
+        public boolean equals(Object that) {
+            return
+                that instanceof Key &&
+                ((Key) that).value.equals(value) &&
+                ((Key) that).type.equals(type);
         }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(value, type);
+        }
+
+    }
+
+    private Coercion makeCoercion(Class<?> clazz) {
         if (clazz == Integer.class || clazz == Integer.TYPE) {
-            return new Integer(number.intValue());
+            return value -> value instanceof Integer ? value : Integer.valueOf(coerceInt(value));
         }
         if (clazz == Long.class || clazz == Long.TYPE) {
-            return new Long(number.longValue());
+            return value -> value instanceof Long ? value : Long.valueOf(coerceLong(value));
+        }
+        if (clazz == Double.class || clazz == Double.TYPE) {
+            return value -> value instanceof Double ? value : Double.valueOf(coerceDouble(value));
         }
         if (clazz == Float.class || clazz == Float.TYPE) {
-            return new Float(number.floatValue());
+            return value -> value instanceof Float ? value : Float.valueOf((float) coerceDouble(value));
         }
-        return new Double(number.doubleValue());
+        if (clazz == Short.class || clazz == Short.TYPE) {
+            return value -> value instanceof Short ? value : Short.valueOf((short) coerceInt(value));
+        }
+        if (clazz == Byte.class || clazz == Byte.TYPE) {
+            return value -> value instanceof Byte ? value : Byte.valueOf((byte) coerceInt(value));
+        }
+        if (clazz == Boolean.class || clazz == Boolean.TYPE) {
+            return value -> value instanceof Boolean ? value : Boolean.valueOf(coerceBoolean(value));
+        }
+        if (clazz == Character.class || clazz == Character.TYPE) {
+            return value -> value instanceof Character ? value : Character.valueOf(coerceChar(value));
+        }
+        // the converter is looked up on every coercion (cheaply) so that converters registered later take effect
+        return value -> {
+            if (value == null || clazz.isInstance(value)) {
+                return value;
+            }
+            Converter<?> converter = converters.get(clazz);
+            if (value instanceof Reader && converter instanceof JsonConverter) {
+                return ((JsonConverter<?>) converter).read((Reader) value);
+            }
+            return converter.convert(text(value));
+        };
+    }
+
+    private static String text(Object value) {
+        if (value == null) {
+            return "";
+        }
+        if (value instanceof Reader) {
+            StringBuilder text = new StringBuilder();
+            char[] buffer = new char[8192];
+            try {
+                for (int n; (n = ((Reader) value).read(buffer)) != -1; ) {
+                    text.append(buffer, 0, n);
+                }
+            } catch (IOException exception) {
+                throw new ConfigurationException("Unable to read value", exception);
+            }
+            return text.toString();
+        }
+        return value.toString();
     }
 
-    private boolean isBoolean(Object value) {
-        return isBoolean(value.getClass());
+    // primitive-specialized variants of coerce(value, int.class) etc, which neither box their result nor, for
+    // strings, go through an intermediate Number.  integers are parsed exactly (so longs beyond 2^53 survive),
+    // falling back to parsing a double (so "1.5" and "1e3" still work)
+
+    public int coerceInt(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).intValue();
+        }
+        String s = text(value);
+        if (s.isEmpty()) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(s);
+        } catch (NumberFormatException exception) {
+            return (int) Double.parseDouble(s);
+        }
+    }
+
+    public long coerceLong(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        String s = text(value);
+        if (s.isEmpty()) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(s);
+        } catch (NumberFormatException exception) {
+            return (long) Double.parseDouble(s);
+        }
     }
 
-    private boolean isBoolean(Class<?> clazz) {
-        return clazz == Boolean.class || clazz == Boolean.TYPE;
+    public double coerceDouble(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        String s = text(value);
+        return s.isEmpty() ? 0 : Double.parseDouble(s);
     }
 
-    private boolean isCharacter(Object value) {
-        return isCharacter(value.getClass());
+    public boolean coerceBoolean(Object value) {
+        if (value instanceof Boolean) {
+            return (Boolean) value;
+        }
+        return Boolean.parseBoolean(text(value));
     }
 
-    private boolean isCharacter(Class<?> clazz) {
-        return clazz == Character.class || clazz == Character.TYPE;
+    public char coerceChar(Object value) {
+        if (value instanceof Character) {
+            return (Character) value;
+        }
+        String s = text(value);
+        return s.isEmpty() ? 0 : s.charAt(0);
     }
 
 }
@@ -44,6 +44,11 @@ public @interface Configurable {
     // the environment variable from which to retrieve the value; defaults to "SOME_FIELD"
     String envvar() default "";
 
+    // the key in the configuration files named by `anyfig.files` or ANYFIG_FILES (or the name of the file in
+    // the directories named by `anyfig.directories` or ANYFIG_DIRECTORIES) from which to retrieve the value;
+    // defaults to checking both "someField" and "some.pkg.SomeClass.someField"
+    String file() default "";
+
     // optional remote HTTP API for reading/writing configurable fields:
     // the key for setting the value; defaults to "some.pkg.SomeClass.someField"
     String remote() default "";
@@ -53,6 +58,10 @@ public @interface Configurable {
     // when using the built-in logger short-cut callbacks, do not log the old/new values
     boolean redact() default false;
 
+    // array and collection fields (eg, int[] or List<String>) may be configured with a delimited string such
+    // as "8080,8081" as well as with a JSON array; this separates the elements
+    String separator() default ",";
+
     public static final Configurable DEFAULT = new Configurable() {
         @Override public Class<? extends Annotation> annotationType() {
             return Configurable.class;
@@ -81,6 +90,9 @@ public @interface Configurable {
         @Override public String envvar() {
             return "";
         }
+        @Override public String file() {
+            return "";
+        }
         @Override public String remote() {
             return "";
         }
@@ -90,6 +102,9 @@ public @interface Configurable {
         @Override public boolean redact() {
             return false;
         }
+        @Override public String separator() {
+            return ",";
+        }
     };
 
 }
@@ -1,115 +1,521 @@
 package io.osowa.anyfig;
 
+import com.google.common.collect.MapMaker;
+
+import io.osowa.anyfig.mechanisms.DirectoryMechanism;
+import io.osowa.anyfig.mechanisms.FileMechanism;
+import io.osowa.anyfig.mechanisms.Mechanism;
 import io.osowa.anyfig.mechanisms.Mechanisms;
+import io.osowa.anyfig.mechanisms.SourceSnapshot;
 import io.osowa.anyfig.utils.Either;
+import io.osowa.anyfig.utils.FieldAccessor;
 import io.osowa.anyfig.utils.Pair;
 import io.osowa.anyfig.utils.Possible;
 import io.osowa.anyfig.utils.Utils;
 
-import java.lang.reflect.AnnotatedElement;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.function.Consumer;
-import java.util.stream.Stream;
 
 public class Configurer {
 
     private final Anyfig anyfig;
     private final Registrar registrar;
     private final History history;
-    private final Retriever retriever = new Retriever();
-    private final Coercer coercer = new Coercer();
+    private volatile Retriever retriever = new Retriever();
+    private final Coercer coercer;
+
+    // if set, callbacks run on its threads rather than the configuring thread (see Dispatcher)
+    private volatile Dispatcher dispatcher = null;
+
+    // callbacks registered with a coalescing window wait here (see Coalescer)
+    private final Coalescer coalescer = new Coalescer();
+
+    // held while a group of values is committed (see set)
+    private final Object groupLock = new Object();
+
+    // values set through the Remote API (or rolled back to) before a restart, and how, waiting for their fields to
+    // be configured (see replay)
+    private final ConcurrentMap<Field,Pair<Object,Mechanisms>> replayed = new ConcurrentHashMap<>();
+
+    // everything configured so far, with the sources it was configured with, so that fields can be re-resolved
+    // when files are reloaded; held weakly, so configuring an object doesn't keep it alive
+    private final ConcurrentMap<Object,SourceSnapshot> objects = new MapMaker().weakKeys().makeMap();
+    private final ConcurrentMap<Class<?>,Map<String,SourceSnapshot>> statics = new MapMaker().weakKeys().makeMap();
 
     public Configurer(Anyfig anyfig, Registrar registrar, History history) {
+        this(anyfig, registrar, history, new Coercer());
+    }
+
+    public Configurer(Anyfig anyfig, Registrar registrar, History history, Coercer coercer) {
         this.anyfig = anyfig;
         this.registrar = registrar;
         this.history = history;
+        this.coercer = coercer;
     }
 
-    public void configure(String[] args, Class<?> clazz) {
-        for (Field field : clazz.getDeclaredFields()) {
-            if (isConfigurable(field) && Utils.isStatic(field)) {
-                configure(args, field);
-            }
+    // the mechanisms from which values are retrieved, in order of precedence
+    public List<Mechanism> getMechanisms() {
+        return retriever.getMechanisms();
+    }
+
+    public void setMechanisms(List<Mechanism> mechanisms) {
+        retriever = new Retriever(mechanisms);
+    }
+
+    public Dispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    public void setDispatcher(Dispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
+    public void configure(SourceSnapshot sources, Class<?> clazz) {
+        for (FieldPlan plan : ClassPlan.of(clazz).staticFields) {
+            configure(sources, Optional.empty(), plan);
         }
     }
 
-    public void configure(String[] args, Object object) {
+    public void configure(SourceSnapshot sources, Object object) {
+        objects.put(object, sources);
         Optional<Object> oobject = Optional.of(object);
-        for (Field field : object.getClass().getDeclaredFields()) {
-            if (isConfigurable(field)) {
-                if (Utils.isStatic(field)) {
-                    // note that we configure static fields encountered when configuring
-                    // on object.  this totally seems like the right thing to do! but perhaps
-                    // for certain scenarios it will seem weird?!
-                    configure(args, field);
-                } else {
-                    configure(args, oobject, field);
-                }
+        for (FieldPlan plan : ClassPlan.of(object.getClass()).fields) {
+            if (plan.isStatic) {
+                // note that we configure static fields encountered when configuring
+                // on object.  this totally seems like the right thing to do! but perhaps
+                // for certain scenarios it will seem weird?!
+                configure(sources, Optional.empty(), plan);
+            } else {
+                configure(sources, oobject, plan);
             }
         }
     }
 
-    public void configure(String[] args, Field field) {
+    public void configure(SourceSnapshot sources, Field field) {
         if (!Utils.isStatic(field)) {
             throw new ConfigurationException("Can't configure instance field without an object");
         }
-        configure(args, Optional.empty(), field);
+        configure(sources, Optional.empty(), ClassPlan.of(field));
+    }
+
+    // configure many objects, resolving and setting their fields in parallel on `executor`.  static fields are
+    // configured first, once per class and in input order, on the calling thread; instance fields are then
+    // applied by the executor in chunks.  the history and callbacks are always updated on the calling thread,
+    // one object at a time: in input order if `ordered`, otherwise in whatever order the chunks complete.
+    public void configureAll(SourceSnapshot sources, Iterable<?> objects, Executor executor, boolean ordered) {
+        List<Object> inputs = new ArrayList<>();
+        Set<Class<?>> classes = new LinkedHashSet<>();
+        for (Object object : objects) {
+            inputs.add(object);
+            classes.add(object.getClass());
+            this.objects.put(object, sources);
+        }
+        for (Class<?> clazz : classes) {
+            for (FieldPlan plan : ClassPlan.of(clazz).staticFields) {
+                configure(sources, Optional.empty(), plan);
+            }
+        }
+        int chunk = Math.max(1, inputs.size() / (CHUNKS_PER_CORE * Runtime.getRuntime().availableProcessors()));
+        List<CompletableFuture<List<Possible<Either<Delta,Failure>>>>> futures = new ArrayList<>();
+        BlockingQueue<CompletableFuture<List<Possible<Either<Delta,Failure>>>>> completed = new LinkedBlockingQueue<>();
+        for (int from = 0; from < inputs.size(); from += chunk) {
+            List<Object> slice = inputs.subList(from, Math.min(inputs.size(), from + chunk));
+            CompletableFuture<List<Possible<Either<Delta,Failure>>>> future =
+                CompletableFuture.supplyAsync(() -> applyAll(sources, slice), executor);
+            future.whenComplete((outcomes, exception) -> completed.add(future));
+            futures.add(future);
+        }
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                CompletableFuture<List<Possible<Either<Delta,Failure>>>> future = ordered ? futures.get(i) : completed.take();
+                future.join().forEach(this::report);
+            }
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new ConfigurationException("Interrupted while configuring", exception);
+        } catch (CompletionException exception) {
+            if (exception.getCause() instanceof ConfigurationException) {
+                throw (ConfigurationException) exception.getCause();
+            }
+            throw new ConfigurationException("Failure while configuring", exception.getCause());
+        }
+    }
+
+    private static final int CHUNKS_PER_CORE = 4;
+
+    // re-resolve just the fields (of everything configured so far) that have a file candidate among the keys
+    // that changed (in files, or in `..data` directories) since they were configured, each with the sources
+    // they were configured with but with the files refreshed; returns the number of fields re-resolved
+    public int reconfigure() {
+        int count = 0;
+        Map<SourceSnapshot,SourceSnapshot> refreshed = new IdentityHashMap<>();
+        for (Map.Entry<Class<?>,Map<String,SourceSnapshot>> entry : statics.entrySet()) {
+            for (FieldPlan plan : ClassPlan.of(entry.getKey()).staticFields) {
+                SourceSnapshot sources = entry.getValue().get(plan.field.getName());
+                if (sources != null) {
+                    SourceSnapshot after = refreshed.computeIfAbsent(sources, SourceSnapshot::refresh);
+                    if (isAffected(plan, getChangedKeys(sources, after))) {
+                        configure(after, Optional.empty(), plan);
+                        count++;
+                    } else {
+                        entry.getValue().put(plan.field.getName(), after);
+                    }
+                }
+            }
+        }
+        for (Map.Entry<Object,SourceSnapshot> entry : objects.entrySet()) {
+            SourceSnapshot after = refreshed.computeIfAbsent(entry.getValue(), SourceSnapshot::refresh);
+            Set<String> keys = getChangedKeys(entry.getValue(), after);
+            if (!keys.isEmpty()) {
+                Optional<Object> object = Optional.of(entry.getKey());
+                for (FieldPlan plan : ClassPlan.of(entry.getKey().getClass()).fields) {
+                    if (!plan.isStatic && isAffected(plan, keys)) {
+                        report(apply(after, object, plan));
+                        count++;
+                    }
+                }
+            }
+            objects.put(entry.getKey(), after);
+        }
+        return count;
+    }
+
+    private static Set<String> getChangedKeys(SourceSnapshot before, SourceSnapshot after) {
+        Set<String> keys = new HashSet<>(FileMechanism.getChangedKeys(before, after));
+        keys.addAll(DirectoryMechanism.getChangedKeys(before, after));
+        return keys;
+    }
+
+    private static boolean isAffected(FieldPlan plan, Set<String> keys) {
+        for (String key : plan.files) {
+            if (keys.contains(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private List<Possible<Either<Delta,Failure>>> applyAll(SourceSnapshot sources, List<Object> objects) {
+        List<Possible<Either<Delta,Failure>>> outcomes = new ArrayList<>();
+        for (Object object : objects) {
+            Optional<Object> oobject = Optional.of(object);
+            for (FieldPlan plan : ClassPlan.of(object.getClass()).fields) {
+                if (!plan.isStatic) {
+                    outcomes.add(apply(sources, oobject, plan));
+                }
+            }
+        }
+        return outcomes;
+    }
+
+    private void configure(SourceSnapshot sources, Optional<Object> object, FieldPlan plan) {
+        if (plan.isStatic) {
+            statics.computeIfAbsent(plan.field.getDeclaringClass(), clazz -> new ConcurrentHashMap<>())
+                .put(plan.field.getName(), sources);
+            if (!plan.annotation.blockremote()) {
+                anyfig.remoteRegister(plan.field, plan.annotation);
+            }
+            Pair<Object,Mechanisms> value = replayed.isEmpty() ? null : replayed.remove(plan.field);
+            if (value != null) {
+                // set through the Remote API (or rolled back to) before a restart, so that's the value the field
+                // had last
+                report(apply(object, plan, () -> Possible.of(value)));
+                return;
+            }
+        }
+        report(apply(sources, object, plan));
+    }
+
+    // replay values set through the Remote API (or rolled back to) before a restart, with the mechanism that set
+    // them (see HistoryLog).  fields that haven't been configured yet take the replayed value when they are,
+    // instead of resolving it from their sources, so their callbacks only ever see the replayed value; fields that
+    // have already been configured are set now, each on its own (see set), so that one stale value doesn't prevent
+    // the rest being replayed
+    public List<Delta> replay(Map<Field,Pair<Object,Mechanisms>> values) {
+        List<Delta> deltas = new ArrayList<>();
+        for (Map.Entry<Field,Pair<Object,Mechanisms>> entry : values.entrySet()) {
+            Map<String,SourceSnapshot> fields = statics.get(entry.getKey().getDeclaringClass());
+            if (fields != null && fields.containsKey(entry.getKey().getName())) {
+                Pair<Object,Mechanisms> value = entry.getValue();
+                try {
+                    deltas.addAll(set(Collections.singletonMap(entry.getKey(), value.left), value.right));
+                } catch (ConfigurationException ignored) {
+                    // reported to the failure callbacks
+                }
+            } else {
+                replayed.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return deltas;
+    }
+
+    // set static fields to values supplied by the Remote API, as one transaction.  every value is coerced first,
+    // so that a bad value fails the group before anything is set; then, under the group lock, the fields that
+    // differ are set in order, and if any set fails the fields already set are restored (newest first).  once the
+    // group has been committed, its deltas are recorded, still under the lock, so that the history (and its log)
+    // has concurrent groups in the order they were set.  then the callbacks are invoked, in order, followed by
+    // the batch callbacks, once, with all the deltas; by then it's too late to fail the group, so a callback
+    // that throws is reported to the failure callbacks, as usual, and a failure callback that throws goes to the
+    // thread's uncaught exception handler.  if the group fails, the failure callbacks are invoked and a
+    // ConfigurationException is thrown; nothing is recorded
+    public List<Delta> remoteSet(Map<Field,Object> values) {
+        return set(values, Mechanisms.REMOTE);
+    }
+
+    // likewise, but reporting the deltas with the given mechanism (see remoteSet)
+    public List<Delta> set(Map<Field,Object> values, Mechanisms mechanism) {
+        List<FieldPlan> plans = new ArrayList<>();
+        List<Object> newVals = new ArrayList<>();
+        List<Failure> failures = new ArrayList<>();
+        for (Map.Entry<Field,Object> entry : values.entrySet()) {
+            if (!Utils.isStatic(entry.getKey())) {
+                throw new ConfigurationException("Can't set instance field `" + entry.getKey() + "` as " + mechanism);
+            }
+            FieldPlan plan = ClassPlan.of(entry.getKey());
+            Possible<Pair<Object,Mechanisms>> value = Possible.of(Pair.of(entry.getValue(), mechanism));
+            try {
+                newVals.add(getValue(plan, () -> value).get().left);
+            } catch (Exception exception) {
+                failures.add(new Failure(
+                    Optional.empty(), plan.annotation, plan.field, mechanism,
+                    peek(plan, Optional.empty()), Possible.absent(), exception));
+                newVals.add(null);
+            }
+            plans.add(plan);
+        }
+        List<Delta> deltas = failures.isEmpty() ? commit(plans, newVals, mechanism, failures) : Collections.emptyList();
+        if (!failures.isEmpty()) {
+            for (Failure failure : failures) {
+                report(Possible.of(Either.or(Possible.absent(), Possible.of(failure))));
+            }
+            Failure failure = failures.get(0);
+            ConfigurationException exception = new ConfigurationException(
+                "Failure while setting `" + Utils.encodeField(failure.field) + '`', failure.exception);
+            failures.stream().skip(1).forEach(other -> exception.addSuppressed(other.exception));
+            throw exception;
+        }
+        for (Delta delta : deltas) {
+            afterCommit(() -> invokeCallbacks(Either.or(Possible.of(delta), Possible.absent())));
+        }
+        List<Consumer<List<Delta>>> batchCallbacks = registrar.getBatchCallbacks();
+        if (!deltas.isEmpty() && !batchCallbacks.isEmpty()) {
+            afterCommit(() -> dispatch(deltas.get(0).field, () -> {
+                for (Consumer<List<Delta>> callback : batchCallbacks) {
+                    try {
+                        callback.accept(Collections.unmodifiableList(deltas));
+                    } catch (Exception exception) {
+                        // a failure of each delta's callbacks
+                        for (Delta delta : deltas) {
+                            Failure failure = new Failure(
+                                delta.object, delta.annotation, delta.field, delta.mechanism,
+                                Possible.of(delta.oldVal), Possible.of(delta.newVal), exception);
+                            afterCommit(() -> invokeCallbacks(Either.or(Possible.absent(), Possible.of(failure))));
+                        }
+                    }
+                }
+            }));
+        }
+        return deltas;
+    }
+
+    // set the fields that differ, all or nothing, returning the deltas or else adding the failure
+    private List<Delta> commit(List<FieldPlan> plans, List<Object> newVals, Mechanisms mechanism, List<Failure> failures) {
+        synchronized (groupLock) {
+            List<Delta> deltas = new ArrayList<>();
+            for (int i = 0; i < plans.size(); i++) {
+                FieldPlan plan = plans.get(i);
+                Possible<Object> oldVal = Possible.absent();
+                try {
+                    oldVal = Possible.of(plan.accessor.get(null));
+                    if (!Objects.equals(oldVal.get(), newVals.get(i))) {
+                        plan.accessor.set(null, newVals.get(i));
+                        deltas.add(new Delta(
+                            Optional.empty(), plan.annotation, plan.field, mechanism, oldVal.get(), newVals.get(i)));
+                    }
+                } catch (Exception exception) {
+                    for (int j = deltas.size() - 1; j >= 0; j--) {
+                        Delta delta = deltas.get(j);
+                        try {
+                            ClassPlan.accessor(delta.field).set(null, delta.oldVal);
+                        } catch (Exception rollbackException) {
+                            exception.addSuppressed(rollbackException);
+                        }
+                    }
+                    failures.add(new Failure(
+                        Optional.empty(), plan.annotation, plan.field, mechanism,
+                        oldVal, Possible.of(newVals.get(i)), exception));
+                    return Collections.emptyList();
+                }
+            }
+            for (Delta delta : deltas) {
+                history.record(delta);
+            }
+            return deltas;
+        }
+    }
+
+    // run callbacks for a group that has already been committed, when it's too late to fail the group
+    private static void afterCommit(Runnable callbacks) {
+        try {
+            callbacks.run();
+        } catch (RuntimeException exception) {
+            Thread thread = Thread.currentThread();
+            thread.getUncaughtExceptionHandler().uncaughtException(thread, exception);
+        }
     }
 
-    private void configure(String[] args, Optional<Object> object, Field field) {
-        if (object.isPresent() == Utils.isStatic(field)) {
+    private Possible<Either<Delta,Failure>> apply(SourceSnapshot sources, Optional<Object> object, FieldPlan plan) {
+        Retriever retriever = this.retriever;
+        return apply(object, plan, () -> retriever.retrieve(plan, sources));
+    }
+
+    // a field's value, and the mechanism that supplied it
+    @FunctionalInterface
+    private interface Retrieval {
+        Possible<Pair<Object,Mechanisms>> retrieve() throws Exception;
+    }
+
+    // resolve, coerce and set the field, returning the resulting delta or failure (or nothing if the field was
+    // left alone); touches neither the history nor the callbacks, so may be called concurrently for distinct
+    // objects
+    private Possible<Either<Delta,Failure>> apply(Optional<Object> object, FieldPlan plan, Retrieval retrieval) {
+        Field field = plan.field;
+        if (object.isPresent() == plan.isStatic) {
             if (object.isPresent()) {
                 throw new ConfigurationException("Object supplied for static field");
             } else {
                 throw new ConfigurationException("Missing object for instance field");
             }
         }
-        Configurable annotation = Utils.getAnnotation(field);
-        if (Utils.isStatic(field) && !annotation.blockremote()) {
-            anyfig.remoteRegister(field, annotation);
-        }
-        Optional<Callbacks> callbacks = registrar.getCallbacks(object, field);
-        Mechanisms mechanism[] = { null };
-        Possible<?> oldVal[] = { Possible.absent() };
-        Possible<?> newVal[] = { Possible.absent() };
-        boolean eq[] = { false };
+        Configurable annotation = plan.annotation;
+        Mechanisms mechanism = null;
+        Possible<Object> oldVal = Possible.absent();
+        Possible<Object> newVal = Possible.absent();
         try {
-            Utils.whileAccessible(
-                field,
-                () -> {
-                    Object obj = object.orElse(null);
-                    oldVal[0] = Possible.of(field.get(obj));
-                    Possible<Pair<Object,Mechanisms>> pair = getValue(annotation, field, args);
-                    if (pair.present()) {
-                        newVal[0] = Possible.of(pair.get().left);
-                        mechanism[0] = pair.get().right;
-                        eq[0] = Objects.equals(oldVal[0].get(), newVal[0].get());
-                        if (!eq[0]) {
-                            field.set(obj, newVal[0].get());
-                        }
+            Object obj = object.orElse(null);
+            if (isSpecialized(field.getType())) {
+                // primitive fields are coerced, compared and set without boxing; values are boxed only to report
+                // a change
+                Possible<Pair<Object,Mechanisms>> pair = retrieval.retrieve();
+                if (pair.present()) {
+                    mechanism = pair.get().right;
+                    Possible<Pair<Object,Object>> change = applyPrimitive(plan.accessor, obj, pair.get().left);
+                    if (change.present()) {
+                        Delta delta = new Delta(object, annotation, field, mechanism, change.get().left, change.get().right);
+                        return Possible.of(Either.or(Possible.of(delta), Possible.absent()));
                     }
                 }
-            );
-            if (newVal[0].present() && !eq[0]) {
-                Delta delta = new Delta(object, annotation, field, mechanism[0], oldVal[0].get(), newVal[0].get());
-                history.record(delta);
-                if (callbacks.isPresent()) {
-                    invoke(callbacks, delta);
+                return Possible.absent();
+            }
+            oldVal = Possible.of(plan.accessor.get(obj));
+            Possible<Pair<Object,Mechanisms>> pair = getValue(plan, retrieval);
+            if (pair.present()) {
+                newVal = Possible.of(pair.get().left);
+                mechanism = pair.get().right;
+                if (!Objects.equals(oldVal.get(), newVal.get())) {
+                    plan.accessor.set(obj, newVal.get());
+                    Delta delta = new Delta(object, annotation, field, mechanism, oldVal.get(), newVal.get());
+                    return Possible.of(Either.or(Possible.of(delta), Possible.absent()));
                 }
             }
+            return Possible.absent();
         } catch (Exception exception) {
+            if (!oldVal.present()) {
+                oldVal = peek(plan, object);
+            }
+            Failure failure = new Failure(object, annotation, field, mechanism, oldVal, newVal, exception);
+            return Possible.of(Either.or(Possible.absent(), Possible.of(failure)));
+        }
+    }
+
+    // record a delta and invoke the callbacks for the delta or failure (see dispatch)
+    private void report(Possible<Either<Delta,Failure>> outcome) {
+        if (!outcome.present()) {
+            return;
+        }
+        Either<Delta,Failure> either = outcome.get();
+        if (either.left.present()) {
+            history.record(either.left.get());
+        }
+        invokeCallbacks(either);
+    }
+
+    // invoke the callbacks for the delta or failure, here and now or else as dispatched or coalesced
+    private void invokeCallbacks(Either<Delta,Failure> either) {
+        Payload payload = either.left.present() ? either.left.get() : either.right.get();
+        Optional<Callbacks> callbacks = registrar.getCallbacks(payload.object, payload.field);
+        if (!callbacks.isPresent()) {
+            return;
+        }
+        if (either.left.present() && !callbacks.get().coalesce.isZero()) {
+            coalescer.coalesce(callbacks.get(), either.left.get(), delta ->
+                dispatch(delta.field, () -> invoke(callbacks, Either.or(Possible.of(delta), Possible.absent()))));
+        } else {
+            dispatch(payload.field, () -> invoke(callbacks, either));
+        }
+    }
+
+    // deliver the coalesced deltas now, rather than when their windows close
+    public void flushCoalesced() {
+        coalescer.flush();
+    }
+
+    // the number of deltas whose callbacks were skipped, having been coalesced into a later delta
+    public long getCoalesced() {
+        return coalescer.getCoalesced();
+    }
+
+    // run the callbacks for the field here and now, or else on the dispatcher's thread for the field
+    private void dispatch(Field field, Runnable callbacks) {
+        Dispatcher dispatcher = this.dispatcher;
+        if (dispatcher == null) {
+            callbacks.run();
+        } else {
+            dispatcher.dispatch(field, callbacks);
+        }
+    }
+
+    // invoke the callbacks for the delta, or failure (or for the failure of the delta's callback)
+    private void invoke(Optional<Callbacks> callbacks, Either<Delta,Failure> either) {
+        Failure failure;
+        if (either.left.present()) {
+            Delta delta = either.left.get();
             try {
-                Failure failure = new Failure(object, annotation, field, mechanism[0], (Possible<Object>) oldVal[0], (Possible<Object>) newVal[0], exception);
-                invoke(callbacks, failure);
-            } catch (Exception failureCallbackException) {
-                // exception while invoking the failure callback: suppress the original exception, then crash and burn
-                ConfigurationException e = new ConfigurationException("Exception while invoking failure callback", failureCallbackException);
-                e.addSuppressed(exception);
-                throw e;
+                invoke(callbacks, delta);
+                return;
+            } catch (Exception exception) {
+                failure = new Failure(
+                    delta.object, delta.annotation, delta.field, delta.mechanism,
+                    Possible.of(delta.oldVal), Possible.of(delta.newVal), exception);
             }
+        } else {
+            failure = either.right.get();
+        }
+        try {
+            invoke(callbacks, failure);
+        } catch (Exception failureCallbackException) {
+            // exception while invoking the failure callback: suppress the original exception, then crash and burn
+            ConfigurationException e = new ConfigurationException("Exception while invoking failure callback", failureCallbackException);
+            e.addSuppressed(failure.exception);
+            throw e;
         }
     }
 
@@ -161,25 +567,72 @@ public class Configurer {
         });
     }
 
-    private boolean isConfigurable(Field field) {
-        AnnotatedElement[] elements = { field, field.getDeclaringClass(), field.getDeclaringClass().getPackage() };
-        // TODO: Above we are ignoring packages marked "ignore".  But when firing
-        // TODO: callbacks, we match all descendant packages. So for consistency,
-        // TODO: should we check all ancestor packages too?  For example, consider
-        // TODO: packages foo.bar that is ignored and foo.bar.baz that is not ignored;
-        // TODO: should we ignore some field whose class is in package foo.bar.baz?
-        // TODO: I think the intuitive answer is: Yes!
-        return
-            !Utils.isFinal(field) &&
-            Stream.of(elements).allMatch(element ->
-                !element.isAnnotationPresent(Configurable.class) ||
-                !element.getAnnotation(Configurable.class).ignore());
+    private static boolean isSpecialized(Class<?> type) {
+        return type == Integer.TYPE || type == Long.TYPE || type == Double.TYPE || type == Boolean.TYPE || type == Character.TYPE;
+    }
+
+    // set a primitive field of a specialized type, returning its old and new values (boxed) if it changed
+    private Possible<Pair<Object,Object>> applyPrimitive(FieldAccessor accessor, Object obj, Object value) throws Exception {
+        Class<?> type = accessor.field.getType();
+        if (type == Integer.TYPE) {
+            int oldInt = accessor.getInt(obj);
+            int newInt = coercer.coerceInt(value);
+            if (oldInt == newInt) {
+                return Possible.absent();
+            }
+            accessor.setInt(obj, newInt);
+            return Possible.of(Pair.of(oldInt, newInt));
+        }
+        if (type == Long.TYPE) {
+            long oldLong = accessor.getLong(obj);
+            long newLong = coercer.coerceLong(value);
+            if (oldLong == newLong) {
+                return Possible.absent();
+            }
+            accessor.setLong(obj, newLong);
+            return Possible.of(Pair.of(oldLong, newLong));
+        }
+        if (type == Double.TYPE) {
+            double oldDouble = accessor.getDouble(obj);
+            double newDouble = coercer.coerceDouble(value);
+            // the same notion of equality as Double.equals
+            if (Double.doubleToLongBits(oldDouble) == Double.doubleToLongBits(newDouble)) {
+                return Possible.absent();
+            }
+            accessor.setDouble(obj, newDouble);
+            return Possible.of(Pair.of(oldDouble, newDouble));
+        }
+        if (type == Boolean.TYPE) {
+            boolean oldBoolean = accessor.getBoolean(obj);
+            boolean newBoolean = coercer.coerceBoolean(value);
+            if (oldBoolean == newBoolean) {
+                return Possible.absent();
+            }
+            accessor.setBoolean(obj, newBoolean);
+            return Possible.of(Pair.of(oldBoolean, newBoolean));
+        }
+        char oldChar = accessor.getChar(obj);
+        char newChar = coercer.coerceChar(value);
+        if (oldChar == newChar) {
+            return Possible.absent();
+        }
+        accessor.setChar(obj, newChar);
+        return Possible.of(Pair.of(oldChar, newChar));
+    }
+
+    // the field's current value, for reporting failures on the primitive path (which doesn't box it up front)
+    private Possible<Object> peek(FieldPlan plan, Optional<Object> object) {
+        try {
+            return Possible.of(plan.accessor.get(object.orElse(null)));
+        } catch (Exception exception) {
+            return Possible.absent();
+        }
     }
 
-    private Possible<Pair<Object,Mechanisms>> getValue(Configurable annotation, Field field, String[] args) throws Exception {
-        Possible<Pair<Object,Mechanisms>> value = retriever.retrieve(field, annotation, args);
+    private Possible<Pair<Object,Mechanisms>> getValue(FieldPlan plan, Retrieval retrieval) throws Exception {
+        Possible<Pair<Object,Mechanisms>> value = retrieval.retrieve();
         if (value.present()) {
-            Object coerced = coercer.coerce(value.get().left, field.getType());
+            Object coerced = coercer.coerce(value.get().left, plan.field.getGenericType(), plan.annotation.separator());
             return Possible.of(Pair.of(coerced, value.get().right));
         } else {
             return Possible.absent();
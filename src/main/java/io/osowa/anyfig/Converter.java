@@ -0,0 +1,10 @@
+package io.osowa.anyfig;
+
+// convert the string form of a configured value into the given type; see ConverterRegistry
+
+@FunctionalInterface
+public interface Converter<T> {
+
+    T convert(String value) throws Exception;
+
+}
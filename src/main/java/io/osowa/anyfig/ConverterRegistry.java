@@ -0,0 +1,146 @@
+package io.osowa.anyfig;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.URI;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+
+// the converters that Coercer uses for everything other than numbers, booleans and characters.  a converter
+// is resolved once per target type and cached: first any converter registered for exactly that type, then
+// the built-ins (enums, strings, durations, paths, URIs, internet addresses, big numbers and logging levels),
+// and as a last resort Gson, which parses the value as JSON.  JSON converters are also available for generic
+// types (eg, List<Peer>), and can stream values from a Reader rather than a string.  everything is cached per
+// registry (ie, per Anyfig), so that a cached type never outlives the registry, nor pins its class loader.
+
+public class ConverterRegistry {
+
+    private final Gson gson = new Gson();
+
+    // gson caches adapters too, but behind a lock and keyed by a freshly allocated TypeToken
+    private final ConcurrentMap<Type,JsonConverter<?>> jsonConverters = new ConcurrentHashMap<>();
+
+    private final Map<Class<?>,Converter<?>> registered = new ConcurrentHashMap<>();
+
+    private final ClassValue<Converter<?>> converters = new ClassValue<Converter<?>>() {
+        @Override
+        protected Converter<?> computeValue(Class<?> clazz) {
+            Converter<?> converter = registered.get(clazz);
+            return converter != null ? converter : makeConverter(clazz);
+        }
+    };
+
+    public <T> void register(Class<T> clazz, Converter<T> converter) {
+        registered.put(clazz, converter);
+        converters.remove(clazz);
+    }
+
+    public <T> Converter<T> get(Class<T> clazz) {
+        return (Converter<T>) converters.get(clazz);
+    }
+
+    public JsonConverter<?> getJsonConverter(Type type) {
+        return jsonConverters.computeIfAbsent(type, t -> new JsonConverter<>(gson.getAdapter(TypeToken.get(t))));
+    }
+
+    // parse values as (lenient) JSON with a resolved type adapter
+    public static class JsonConverter<T> implements Converter<T> {
+
+        private final TypeAdapter<T> adapter;
+
+        private JsonConverter(TypeAdapter<T> adapter) {
+            this.adapter = adapter;
+        }
+
+        @Override
+        public T convert(String value) throws IOException {
+            return read(new StringReader(value));
+        }
+
+        public T read(Reader json) throws IOException {
+            JsonReader reader = new JsonReader(json);
+            reader.setLenient(true); // as Gson.fromJson
+            try {
+                reader.peek();
+            } catch (EOFException exception) {
+                return null; // empty input, as Gson.fromJson
+            }
+            T value = adapter.read(reader);
+            // nothing may follow the value, as Gson.fromJson
+            try {
+                if (reader.peek() != JsonToken.END_DOCUMENT) {
+                    throw new JsonIOException("JSON document was not fully consumed.");
+                }
+            } catch (MalformedJsonException exception) {
+                throw new JsonSyntaxException(exception);
+            }
+            return value;
+        }
+
+    }
+
+    private Converter<?> makeConverter(Class<?> clazz) {
+        if (clazz.isEnum()) {
+            return makeEnumConverter((Class<? extends Enum>) clazz);
+        }
+        if (clazz == String.class) {
+            return value -> value;
+        }
+        if (clazz == Duration.class) {
+            return Duration::parse;
+        }
+        if (clazz == java.nio.file.Path.class) {
+            return value -> Paths.get(value);
+        }
+        if (clazz == URI.class) {
+            return URI::new;
+        }
+        if (clazz == InetAddress.class) {
+            return InetAddress::getByName;
+        }
+        if (clazz == BigDecimal.class) {
+            return BigDecimal::new;
+        }
+        if (clazz == BigInteger.class) {
+            return BigInteger::new;
+        }
+        if (clazz == Level.class) {
+            return Level::parse;
+        }
+        return getJsonConverter(clazz);
+    }
+
+    // constants are looked up by name; anything else (eg, a JSON string, or a @SerializedName) goes to Gson
+    private <E extends Enum<E>> Converter<E> makeEnumConverter(Class<E> clazz) {
+        Map<String,E> constants = new HashMap<>();
+        for (E constant : clazz.getEnumConstants()) {
+            constants.put(constant.name(), constant);
+        }
+        Converter<?> json = getJsonConverter(clazz);
+        return value -> {
+            E constant = constants.get(value);
+            return constant != null ? constant : (E) json.convert(value);
+        };
+    }
+
+}
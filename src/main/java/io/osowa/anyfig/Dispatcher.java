@@ -0,0 +1,280 @@
+package io.osowa.anyfig;
+
+import java.lang.reflect.Field;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// runs callbacks on dedicated threads rather than on the thread that configured the field (eg, a Remote API
+// request thread), so that a slow callback doesn't stall configuration (see Anyfig.enableAsyncCallbacks).  each
+// field is assigned to one of `threads` daemon threads, each with a queue of up to `capacity` callbacks, so the
+// callbacks for any one field run one at a time in the order their deltas were recorded; callbacks for distinct
+// fields may run concurrently, and in any order.  when a queue is full, the policy decides: BLOCK the configuring
+// thread until there's room, DROP the callback, or FAIL with a ConfigurationException (the field has been set by
+// then; only its callbacks are lost).  the one exception to the ordering: a callback that is triggered by a
+// callback (ie, on one of our threads) is queued if there's room, but otherwise runs there and then, since
+// waiting for a queue from one of our own threads could deadlock.  a callback that throws can't fail the
+// configuration that triggered it, so the exception goes to the thread's uncaught exception handler instead.
+
+public class Dispatcher implements AutoCloseable {
+
+    public enum Policy {
+        BLOCK,
+        DROP,
+        FAIL
+    }
+
+    public static final int DEFAULT_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    public static final int DEFAULT_CAPACITY = 1000;
+    public static final Policy DEFAULT_POLICY = Policy.BLOCK;
+
+    private final Policy policy;
+    private final List<Lane> lanes = new ArrayList<>();
+    private volatile boolean closed = false;
+
+    private final LongAdder dispatched = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder latency = new LongAdder(); // nanos, from dispatch to completion
+    private final AtomicLong maxLatency = new AtomicLong();
+
+    // a callback, and when it was dispatched; or else one of our own markers, which aren't counted in the stats
+    private static class Task {
+
+        final Runnable callback;
+        final long dispatched;
+        final boolean marker;
+
+        Task(Runnable callback, boolean marker) {
+            this.callback = callback;
+            this.dispatched = System.nanoTime();
+            this.marker = marker;
+        }
+
+    }
+
+    private static final Task STOP = new Task(() -> {}, true);
+
+    public Dispatcher() {
+        this(DEFAULT_THREADS, DEFAULT_CAPACITY, DEFAULT_POLICY);
+    }
+
+    public Dispatcher(int threads, int capacity, Policy policy) {
+        if (threads <= 0) {
+            throw new ConfigurationException("Dispatcher threads must be positive, not " + threads);
+        }
+        if (capacity <= 0) {
+            throw new ConfigurationException("Dispatcher capacity must be positive, not " + capacity);
+        }
+        this.policy = policy;
+        for (int i = 0; i < threads; i++) {
+            lanes.add(new Lane(i, capacity));
+        }
+    }
+
+    // run the callback for the field, on the field's thread (or as the policy dictates)
+    public void dispatch(Field field, Runnable callback) {
+        if (closed) {
+            callback.run();
+            return;
+        }
+        Lane lane = lanes.get(Math.floorMod(field.hashCode(), lanes.size()));
+        Task task = new Task(callback, false);
+        dispatched.increment();
+        if (lane.queue.offer(task)) {
+            return;
+        }
+        Thread current = Thread.currentThread();
+        if (current instanceof LaneThread && ((LaneThread) current).getDispatcher() == this) {
+            run(task); // see above
+            return;
+        }
+        switch (policy) {
+            case BLOCK:
+                try {
+                    lane.queue.put(task);
+                } catch (InterruptedException exception) {
+                    Thread.currentThread().interrupt();
+                    rejected.increment();
+                    throw new ConfigurationException("Interrupted while dispatching callback", exception);
+                }
+                break;
+            case DROP:
+                rejected.increment();
+                break;
+            case FAIL:
+                rejected.increment();
+                throw new ConfigurationException("Callback queue is full for `" + field + '`');
+        }
+    }
+
+    // wait until every callback dispatched so far has run (or until closed, which runs them anyway)
+    public void flush() {
+        CountDownLatch latch = new CountDownLatch(lanes.size());
+        try {
+            for (Lane lane : lanes) {
+                while (!lane.queue.offer(new Task(latch::countDown, true), 10, TimeUnit.MILLISECONDS)) {
+                    if (closed) {
+                        return;
+                    }
+                }
+            }
+            // a marker queued behind close's STOP never runs
+            while (!latch.await(10, TimeUnit.MILLISECONDS)) {
+                if (closed) {
+                    return;
+                }
+            }
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // run the callbacks already dispatched, then stop; later callbacks run on the configuring thread
+    @Override
+    public void close() {
+        closed = true;
+        for (Lane lane : lanes) {
+            try {
+                lane.queue.put(STOP);
+                lane.thread.join();
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            // anything dispatched while we were closing
+            for (Task task = lane.queue.poll(); task != null; task = lane.queue.poll()) {
+                if (task.marker) {
+                    task.callback.run();
+                } else {
+                    run(task);
+                }
+            }
+        }
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    public Stats getStats() {
+        int depth = 0;
+        for (Lane lane : lanes) {
+            depth += lane.queue.size();
+        }
+        return new Stats(
+            depth, dispatched.sum(), completed.sum(), rejected.sum(), failed.sum(), latency.sum(), maxLatency.get());
+    }
+
+    // a snapshot of the dispatcher's activity so far.  latency is from dispatch to completion, ie including the
+    // time spent queued, so it's how far behind the callbacks are
+    public static class Stats {
+
+        public final int queueDepth; // callbacks waiting to run, right now
+        public final long dispatched;
+        public final long completed;
+        public final long rejected;  // dropped or failed by the policy
+        public final long failed;    // threw an exception
+        public final Duration totalLatency;
+        public final Duration maxLatency;
+
+        Stats(
+            int queueDepth, long dispatched, long completed, long rejected, long failed, long totalLatency,
+            long maxLatency) {
+            this.queueDepth = queueDepth;
+            this.dispatched = dispatched;
+            this.completed = completed;
+            this.rejected = rejected;
+            this.failed = failed;
+            this.totalLatency = Duration.ofNanos(totalLatency);
+            this.maxLatency = Duration.ofNanos(maxLatency);
+        }
+
+        public Duration getMeanLatency() {
+            return completed == 0 ? Duration.ZERO : totalLatency.dividedBy(completed);
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{queueDepth=" + queueDepth + ", dispatched=" + dispatched + ", completed=" + completed +
+                ", rejected=" + rejected + ", failed=" + failed + ", meanLatency=" + getMeanLatency() +
+                ", maxLatency=" + maxLatency + '}';
+        }
+
+    }
+
+    private void run(Task task) {
+        try {
+            task.callback.run();
+        } catch (RuntimeException exception) {
+            failed.increment();
+            Thread thread = Thread.currentThread();
+            thread.getUncaughtExceptionHandler().uncaughtException(thread, exception);
+        } finally {
+            long nanos = System.nanoTime() - task.dispatched;
+            completed.increment();
+            latency.add(nanos);
+            maxLatency.accumulateAndGet(nanos, Math::max);
+        }
+    }
+
+    // one thread, and its queue
+    private class Lane {
+
+        final BlockingQueue<Task> queue;
+        final Thread thread;
+
+        Lane(int index, int capacity) {
+            queue = new ArrayBlockingQueue<>(capacity);
+            thread = new LaneThread(this, Dispatcher.class.getName() + '-' + index);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        void run() {
+            try {
+                while (true) {
+                    Task task = queue.take();
+                    if (task == STOP) {
+                        return;
+                    }
+                    if (task.marker) {
+                        task.callback.run();
+                    } else {
+                        Dispatcher.this.run(task);
+                    }
+                }
+            } catch (InterruptedException ignored) {
+                // stopped
+            }
+        }
+
+        Dispatcher getDispatcher() {
+            return Dispatcher.this;
+        }
+
+    }
+
+    private static class LaneThread extends Thread {
+
+        private final Lane lane;
+
+        LaneThread(Lane lane, String name) {
+            super(lane::run, name);
+            this.lane = lane;
+        }
+
+        Dispatcher getDispatcher() {
+            return lane.getDispatcher();
+        }
+
+    }
+
+}
@@ -0,0 +1,68 @@
+package io.osowa.anyfig;
+
+import io.osowa.anyfig.mechanisms.ArgsMechanism;
+import io.osowa.anyfig.mechanisms.ConstMechanism;
+import io.osowa.anyfig.mechanisms.EnvVarMechanism;
+import io.osowa.anyfig.mechanisms.FileMechanism;
+import io.osowa.anyfig.mechanisms.PropertyMechanism;
+import io.osowa.anyfig.utils.FieldAccessor;
+import io.osowa.anyfig.utils.Pair;
+import io.osowa.anyfig.utils.Utils;
+
+import java.lang.reflect.Field;
+
+// everything Anyfig needs to know about a configurable field that doesn't depend on the object being
+// configured or on the current environment: the resolved annotation and the candidate keys that each
+// mechanism will look up.  computed once per field (see ClassPlan) rather than on every configure() call.
+
+public class FieldPlan {
+
+    public final Field field;
+    public final Configurable annotation;
+    public final boolean isStatic;
+    public final FieldAccessor accessor;
+
+    // candidate keys, in the order in which they are tried
+    public final String[] envvars;    // SOME_FIELD
+    public final String[] properties; // someField, some.pkg.SomeClass.someField
+    public final String[] arguments;  // someField, some.pkg.SomeClass.someField (as in --someField=...)
+    public final String[] files;      // someField, some.pkg.SomeClass.someField
+
+    // the constant from which to retrieve the value: either the DEFAULT_SOME_FIELD guess, or the
+    // (possibly qualified) constant named by the annotation
+    public final String constantClass;
+    public final String constant;
+
+    public FieldPlan(Field field, FieldAccessor accessor) {
+        this(field, Utils.getAnnotation(field), accessor);
+    }
+
+    public FieldPlan(Field field, Configurable annotation, FieldAccessor accessor) {
+        this(
+            field, annotation, accessor,
+            EnvVarMechanism.makeCandidates(field.getDeclaringClass().getName(), field.getName(), annotation),
+            PropertyMechanism.makeCandidates(field.getDeclaringClass().getName(), field.getName(), annotation),
+            ArgsMechanism.makeCandidates(field.getDeclaringClass().getName(), field.getName(), annotation),
+            FileMechanism.makeCandidates(field.getDeclaringClass().getName(), field.getName(), annotation),
+            ConstMechanism.makeCandidate(field.getDeclaringClass().getName(), field.getName(), annotation));
+    }
+
+    // for Binders, which precompute the candidates at compile time
+    public FieldPlan(
+        Field field, Configurable annotation, FieldAccessor accessor,
+        String[] envvars, String[] properties, String[] arguments, String[] files,
+        Pair<String,String> constant)
+    {
+        this.field = field;
+        this.annotation = annotation;
+        this.isStatic = Utils.isStatic(field);
+        this.accessor = accessor;
+        this.envvars = envvars;
+        this.properties = properties;
+        this.arguments = arguments;
+        this.files = files;
+        this.constantClass = constant.left;
+        this.constant = constant.right;
+    }
+
+}
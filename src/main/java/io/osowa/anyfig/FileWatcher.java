@@ -0,0 +1,139 @@
+package io.osowa.anyfig;
+
+import io.osowa.anyfig.mechanisms.DirectoryMechanism;
+import io.osowa.anyfig.mechanisms.FileMechanism;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+// watches the directories of the configuration files indexed so far (see FileMechanism), and the configuration
+// directories themselves (see DirectoryMechanism, whose `..data` swaps are events in the directory), and when
+// any of them change, waits for the writes to settle down (ie, until nothing has changed for `debounce`) and
+// then asks Anyfig to reload them (see Anyfig.reloadFiles).  files and directories that are first read after
+// the watcher starts are picked up within `RESCAN`, and reloaded then, in case they changed in the meantime.
+// runs on its own daemon thread, so callbacks are invoked on that thread.
+
+class FileWatcher {
+
+    private final Anyfig anyfig;
+    private final Duration debounce;
+    private final WatchService service;
+    private final Thread thread;
+
+    static final Duration RESCAN = Duration.ofSeconds(1);
+
+    // owned by the watcher thread (once the constructor has registered the initial paths)
+    private final Set<Path> files = new HashSet<>();
+    private final Set<Path> directories = new HashSet<>();
+    private final Set<Path> watched = new HashSet<>();
+
+    FileWatcher(Anyfig anyfig, Duration debounce) {
+        this.anyfig = anyfig;
+        this.debounce = debounce;
+        try {
+            service = FileSystems.getDefault().newWatchService();
+            rescan();
+        } catch (IOException exception) {
+            throw new ConfigurationException("Unable to watch configuration files", exception);
+        }
+        thread = new Thread(this::run, getClass().getName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void stop() {
+        try {
+            service.close();
+        } catch (IOException ignored) {
+        }
+        thread.interrupt();
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                boolean changed = false;
+                WatchKey key = service.poll(RESCAN.toMillis(), TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    changed = poll(key);
+                    while ((key = service.poll(debounce.toMillis(), TimeUnit.MILLISECONDS)) != null) {
+                        changed |= poll(key);
+                    }
+                }
+                try {
+                    changed |= rescan();
+                } catch (IOException ignored) {
+                    // eg, the directory has gone; we'll try again on the next rescan
+                }
+                if (changed) {
+                    try {
+                        anyfig.reloadFiles();
+                    } catch (ConfigurationException ignored) {
+                        // eg, the file is being replaced; we'll try again on the next change
+                    }
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException ignored) {
+            // stopped
+        }
+    }
+
+    // watch the files and directories that have been read since we last looked, returning whether there were any
+    private boolean rescan() throws IOException {
+        boolean added = false;
+        for (Path file : FileMechanism.getPaths()) {
+            if (!files.contains(file)) {
+                watch(file.getParent());
+                files.add(file);
+                added = true;
+            }
+        }
+        for (Path directory : DirectoryMechanism.getPaths()) {
+            if (!directories.contains(directory)) {
+                watch(directory);
+                directories.add(directory);
+                added = true;
+            }
+        }
+        return added;
+    }
+
+    private void watch(Path directory) throws IOException {
+        if (!watched.contains(directory)) {
+            directory.register(
+                service,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY,
+                StandardWatchEventKinds.ENTRY_DELETE);
+            watched.add(directory);
+        }
+    }
+
+    // did any of the key's events concern a watched file, or happen in a watched directory?
+    private boolean poll(WatchKey key) {
+        boolean changed = false;
+        Path directory = (Path) key.watchable();
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (directories.contains(directory)) {
+                changed = true;
+            } else if (event.context() instanceof Path) {
+                changed |= files.contains(directory.resolve((Path) event.context()));
+            } else {
+                changed = true; // overflow
+            }
+        }
+        key.reset();
+        return changed;
+    }
+
+}
@@ -1,18 +1,288 @@
 package io.osowa.anyfig;
 
+import java.lang.reflect.Field;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.NavigableSet;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// the most recent deltas, in a bounded ring buffer: once `capacity` deltas have been recorded, each new delta
+// overwrites the oldest, and deltas older than `maxAge` (if any) are no longer retained.  recording takes one
+// increment and (unless another writer is a whole lap ahead) one write, and reading takes a snapshot without
+// blocking writers; a delta that is being recorded while a snapshot is taken may or may not be included.  by
+// default the retention is taken from the `anyfig.history.capacity` and `anyfig.history.maxAge` properties (or
+// else the ANYFIG_HISTORY_CAPACITY and ANYFIG_HISTORY_MAX_AGE environment variables); the maximum age is an
+// ISO-8601 duration, eg "PT1H".  the retained deltas are also indexed by timestamp, both overall and per field,
+// in skip lists, so that queries by field and time range take logarithmic time rather than a scan; the indexes
+// are ordered by timestamp (and then by sequence), whereas get() is in the order the deltas were recorded.
 
 public class History {
 
-    private final List<Delta> deltas = new ArrayList<>();
+    public static final int DEFAULT_CAPACITY = 10000;
+
+    public static final String CAPACITY_PROPERTY = "anyfig.history.capacity";
+    public static final String CAPACITY_ENVVAR = "ANYFIG_HISTORY_CAPACITY";
+    public static final String MAX_AGE_PROPERTY = "anyfig.history.maxAge";
+    public static final String MAX_AGE_ENVVAR = "ANYFIG_HISTORY_MAX_AGE";
+
+    private final int capacity;
+    private final long maxAge; // millis, or 0 for no limit
+    private final AtomicReferenceArray<Entry> entries;
+    private final AtomicLong next = new AtomicLong();
+    private volatile HistoryLog log = null;
+
+    private static final Comparator<Entry> ORDER =
+        Comparator.<Entry>comparingLong(entry -> entry.timestamp).thenComparingLong(entry -> entry.sequence);
+
+    private final NavigableSet<Entry> byTime = new ConcurrentSkipListSet<>(ORDER);
+    private final ConcurrentMap<Field,NavigableSet<Entry>> byField = new ConcurrentHashMap<>();
+
+    // a delta, with its position in the sequence of all deltas recorded, so that readers can tell a slot that
+    // has since been overwritten (or not yet written) from the one they expect, and its timestamp when it was
+    // recorded, which orders the indexes
+    private static class Entry {
+
+        final long sequence;
+        final long timestamp;
+        final Delta delta;
+
+        Entry(long sequence, long timestamp, Delta delta) {
+            this.sequence = sequence;
+            this.timestamp = timestamp;
+            this.delta = delta;
+        }
+
+        // a bound for searching the indexes: before every entry at `timestamp`
+        static Entry at(long timestamp) {
+            return new Entry(Long.MIN_VALUE, timestamp, null);
+        }
+
+    }
+
+    // one page of a query: up to `limit` deltas, and the cursor for the next page (or null, if that's all)
+    public static class Page {
+
+        public final List<Delta> deltas;
+        public final String next;
+
+        Page(List<Delta> deltas, String next) {
+            this.deltas = Collections.unmodifiableList(deltas);
+            this.next = next;
+        }
+
+    }
+
+    public History() {
+        this(getDefaultCapacity(), getDefaultMaxAge());
+    }
+
+    // retain at most `capacity` deltas, and none older than `maxAge` (or of any age, if `maxAge` is null)
+    public History(int capacity, Duration maxAge) {
+        if (capacity <= 0) {
+            throw new ConfigurationException("History capacity must be positive, not " + capacity);
+        }
+        if (maxAge != null && (maxAge.isNegative() || maxAge.isZero())) {
+            throw new ConfigurationException("History maximum age must be positive, not " + maxAge);
+        }
+        this.capacity = capacity;
+        this.maxAge = maxAge == null ? 0 : maxAge.toMillis();
+        this.entries = new AtomicReferenceArray<>(capacity);
+    }
 
     public void record(Delta delta) {
-        deltas.add(delta);
+        long sequence = next.getAndIncrement();
+        int index = (int) (sequence % capacity);
+        Entry entry = new Entry(sequence, delta.timestamp, delta);
+        Entry current;
+        boolean stored = true;
+        do {
+            current = entries.get(index);
+            if (current != null && current.sequence > sequence) {
+                // a whole lap of newer deltas was recorded while we weren't looking: ours is already dropped
+                stored = false;
+                break;
+            }
+        } while (!entries.compareAndSet(index, current, entry));
+        if (stored) {
+            if (current != null) {
+                unindex(current);
+            }
+            byTime.add(entry);
+            byField.computeIfAbsent(delta.field, field -> new ConcurrentSkipListSet<>(ORDER)).add(entry);
+        }
+        HistoryLog log = this.log;
+        if (log != null) {
+            log.record(delta);
+        }
     }
 
+    // also record deltas in the given log (or in none, if null)
+    void setLog(HistoryLog log) {
+        this.log = log;
+    }
+
+    // the retained deltas, in the order they were recorded
     public List<Delta> get() {
-        return deltas;
+        long end = next.get();
+        long start = Math.max(0, end - capacity);
+        long oldest = getOldest();
+        List<Delta> deltas = new ArrayList<>((int) (end - start));
+        for (long sequence = start; sequence < end; sequence++) {
+            Entry entry = entries.get((int) (sequence % capacity));
+            if (entry != null && entry.sequence == sequence && entry.delta.timestamp >= oldest) {
+                deltas.add(entry.delta);
+            }
+        }
+        return Collections.unmodifiableList(deltas);
+    }
+
+    // the retained deltas to the field with timestamps in [from, to), in timestamp order
+    public List<Delta> get(Field field, long from, long to) {
+        List<Delta> deltas = new ArrayList<>();
+        long oldest = getOldest();
+        for (Entry entry : getRange(byField.get(field), Entry.at(from), true, Entry.at(to))) {
+            if (isRetained(entry, oldest)) {
+                deltas.add(entry.delta);
+            }
+        }
+        return Collections.unmodifiableList(deltas);
+    }
+
+    // the retained delta to the field with the latest timestamp, if any
+    public Optional<Delta> getLatest(Field field) {
+        NavigableSet<Entry> index = byField.get(field);
+        if (index != null) {
+            long oldest = getOldest();
+            for (Entry entry : index.descendingSet()) {
+                if (isRetained(entry, oldest)) {
+                    return Optional.of(entry.delta);
+                }
+            }
+        }
+        return Optional.empty();
+    }
+
+    // the retained deltas with timestamps at or after `timestamp`, in timestamp order
+    public List<Delta> getChangedSince(long timestamp) {
+        return get(null, timestamp, Long.MAX_VALUE, null, Integer.MAX_VALUE).deltas;
+    }
+
+    // up to `limit` of the retained deltas to the field (or to any field, if null) with timestamps in [from, to),
+    // in timestamp order, starting after `cursor` (the previous page's `next`, or null for the first page)
+    public Page get(Field field, long from, long to, String cursor, int limit) {
+        Entry lower = Entry.at(from);
+        boolean inclusive = true;
+        if (cursor != null) {
+            Entry after = parseCursor(cursor);
+            if (ORDER.compare(after, lower) >= 0) {
+                lower = after;
+                inclusive = false;
+            }
+        }
+        List<Delta> deltas = new ArrayList<>();
+        long oldest = getOldest();
+        Entry last = null;
+        for (Entry entry : getRange(field == null ? byTime : byField.get(field), lower, inclusive, Entry.at(to))) {
+            if (isRetained(entry, oldest)) {
+                if (deltas.size() == limit) {
+                    return new Page(deltas, last.timestamp + ":" + last.sequence);
+                }
+                deltas.add(entry.delta);
+                last = entry;
+            }
+        }
+        return new Page(deltas, null);
+    }
+
+    // does the history still hold every delta after `timestamp`?  (it may not, once deltas have been dropped or
+    // have expired)
+    public boolean covers(long timestamp) {
+        if (getDropped() == 0 && timestamp >= getOldest()) {
+            return true;
+        }
+        List<Delta> first = get(null, Long.MIN_VALUE, Long.MAX_VALUE, null, 1).deltas;
+        return !first.isEmpty() && first.get(0).timestamp <= timestamp;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    // the number of deltas that have been overwritten by newer deltas
+    public long getDropped() {
+        return Math.max(0, next.get() - capacity);
+    }
+
+    private static NavigableSet<Entry> getRange(NavigableSet<Entry> index, Entry from, boolean inclusive, Entry to) {
+        if (index == null || ORDER.compare(from, to) >= 0) {
+            return Collections.emptyNavigableSet();
+        }
+        return index.subSet(from, inclusive, to, false);
+    }
+
+    private long getOldest() {
+        return maxAge == 0 ? Long.MIN_VALUE : Payload.clock.get() - maxAge;
+    }
+
+    // is the entry still in the ring buffer, and not too old?  (an entry may linger in the indexes briefly
+    // after it has been overwritten)
+    private boolean isRetained(Entry entry, long oldest) {
+        return entries.get((int) (entry.sequence % capacity)) == entry && entry.timestamp >= oldest;
+    }
+
+    private void unindex(Entry entry) {
+        byTime.remove(entry);
+        NavigableSet<Entry> index = byField.get(entry.delta.field);
+        if (index != null) {
+            index.remove(entry);
+        }
+    }
+
+    private static Entry parseCursor(String cursor) {
+        int colon = cursor.indexOf(':');
+        try {
+            long timestamp = Long.parseLong(cursor.substring(0, colon));
+            return new Entry(Long.parseLong(cursor.substring(colon + 1)), timestamp, null);
+        } catch (RuntimeException exception) {
+            throw new ConfigurationException("Invalid history cursor `" + cursor + '`', exception);
+        }
+    }
+
+    private static int getDefaultCapacity() {
+        String capacity = getSetting(CAPACITY_PROPERTY, CAPACITY_ENVVAR);
+        if (capacity == null) {
+            return DEFAULT_CAPACITY;
+        }
+        try {
+            return Integer.parseInt(capacity.trim());
+        } catch (NumberFormatException exception) {
+            throw new ConfigurationException("Invalid history capacity `" + capacity + '`', exception);
+        }
+    }
+
+    private static Duration getDefaultMaxAge() {
+        String maxAge = getSetting(MAX_AGE_PROPERTY, MAX_AGE_ENVVAR);
+        if (maxAge == null) {
+            return null;
+        }
+        try {
+            return Duration.parse(maxAge.trim());
+        } catch (RuntimeException exception) {
+            throw new ConfigurationException("Invalid history maximum age `" + maxAge + '`', exception);
+        }
+    }
+
+    private static String getSetting(String property, String envvar) {
+        String value = System.getProperty(property, System.getenv(envvar));
+        return value == null || value.trim().isEmpty() ? null : value;
     }
 
 }
@@ -0,0 +1,408 @@
+package io.osowa.anyfig;
+
+import com.google.gson.Gson;
+
+import io.osowa.anyfig.mechanisms.Mechanisms;
+import io.osowa.anyfig.utils.Pair;
+import io.osowa.anyfig.utils.Utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+// a durable copy of the history (see History), as a directory of append-only segments.  deltas are queued by
+// record() and written by a daemon thread, which writes everything queued since its last write at once and then
+// forces it to disk (group commit), so recording never waits for the disk; sync() waits.  each record is
+// checksummed, so a torn write at the end of a segment (eg, after a crash) is detected and ignored.  once there
+// are more than MAX_SEGMENTS full segments they're compacted into one, keeping the latest delta per field and
+// the `retain` most recent deltas, so that replaying the log takes time proportional to the number of fields
+// and `retain`, not to the age of the log.  only static fields are logged, since objects don't survive a
+// restart, and not redacted fields (see Configurable.redact), since the log is plaintext: so they're neither in
+// the history nor replayed after a restart.  the directory and segments are created readable by their owner
+// only (where the file system supports it).
+
+class HistoryLog implements AutoCloseable {
+
+    static final long DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+    static final int MAX_SEGMENTS = 4;
+
+    private static final String SUFFIX = ".log";
+    private static final byte[] STOP = new byte[0];
+    private static final Gson GSON = new Gson();
+    private static final Set<PosixFilePermission> OWNER_DIRECTORY = PosixFilePermissions.fromString("rwx------");
+    private static final Set<PosixFilePermission> OWNER_FILE = PosixFilePermissions.fromString("rw-------");
+    private static final Set<StandardOpenOption> APPEND =
+        EnumSet.of(StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    private static final Set<StandardOpenOption> REPLACE =
+        EnumSet.of(StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+
+    private final Path directory;
+    private final long segmentSize;
+    private final int retain;
+    private final List<Record> replayed;
+
+    private final BlockingQueue<byte[]> queue = new LinkedBlockingQueue<>();
+    private final AtomicLong queued = new AtomicLong();
+    private long written = 0; // guarded by this
+    private volatile IOException failure = null;
+    private final Thread thread;
+
+    // owned by the writer thread
+    private long segment;
+    private FileChannel channel;
+    private long size = 0;
+
+    // one logged delta, still encoded
+    static class Record {
+
+        final long timestamp;
+        final String mechanism;
+        final String field;
+        final String oldVal; // JSON
+        final String newVal; // JSON
+        final byte[] bytes;
+
+        Record(long timestamp, String mechanism, String field, String oldVal, String newVal, byte[] bytes) {
+            this.timestamp = timestamp;
+            this.mechanism = mechanism;
+            this.field = field;
+            this.oldVal = oldVal;
+            this.newVal = newVal;
+            this.bytes = bytes;
+        }
+
+    }
+
+    // open the log in `directory`, reading what's already there; new deltas go to a new segment
+    HistoryLog(Path directory, long segmentSize, int retain) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.retain = retain;
+        try {
+            createDirectories(directory);
+            List<Path> segments = getSegments();
+            if (segments.size() > MAX_SEGMENTS) {
+                compact(segments);
+                segments = getSegments();
+            }
+            replayed = new ArrayList<>();
+            for (Path path : segments) {
+                replayed.addAll(read(path));
+            }
+            segment = segments.isEmpty() ? 0 : getNumber(segments.get(segments.size() - 1)) + 1;
+            channel = open(segment);
+        } catch (IOException exception) {
+            throw new ConfigurationException("Unable to open history log `" + directory + '`', exception);
+        }
+        thread = new Thread(this::run, getClass().getName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // restore the logged deltas into `history` (without logging them again), returning the values (and their
+    // mechanisms) whose latest delta was set through the Remote API or rolled back to, in the order they were set
+    Map<Field,Pair<Object,Mechanisms>> replay(History history) {
+        Map<Field,Pair<Object,Mechanisms>> remote = new LinkedHashMap<>();
+        for (Record record : replayed) {
+            Field field;
+            try {
+                Pair<String,String> key = Utils.decodeFieldKey(record.field);
+                field = Class.forName(key.left, false, Thread.currentThread().getContextClassLoader())
+                    .getDeclaredField(key.right);
+            } catch (ReflectiveOperationException | LinkageError exception) {
+                continue; // the field's gone
+            }
+            Mechanisms mechanism = getMechanism(record.mechanism);
+            Object oldVal = fromJson(record.oldVal, field);
+            Object newVal = fromJson(record.newVal, field);
+            Delta delta = new Delta(Optional.empty(), Utils.getAnnotation(field), field, mechanism, oldVal, newVal);
+            delta.timestamp = record.timestamp;
+            history.record(delta);
+            remote.remove(field);
+            if (mechanism == Mechanisms.REMOTE || mechanism == Mechanisms.ROLLBACK) { // even if set to null
+                remote.put(field, Pair.of(newVal, mechanism));
+            }
+        }
+        replayed.clear();
+        return remote;
+    }
+
+    // once the writer has failed, nothing more is written, so nothing more is queued (sync reports the failure)
+    void record(Delta delta) {
+        if (failure == null && Utils.isStatic(delta.field) && !delta.annotation.redact()) {
+            queue.add(encode(delta));
+            queued.incrementAndGet();
+        }
+    }
+
+    // wait until everything recorded so far is on disk
+    synchronized void sync() {
+        long target = queued.get();
+        try {
+            while (written < target && failure == null) {
+                wait();
+            }
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new ConfigurationException("Interrupted while writing history log", exception);
+        }
+        if (failure != null) {
+            throw new ConfigurationException("Unable to write history log `" + directory + '`', failure);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            sync();
+        } finally {
+            queue.add(STOP);
+            try {
+                thread.join();
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void run() {
+        List<byte[]> batch = new ArrayList<>();
+        boolean stopping = false;
+        try {
+            while (!stopping) {
+                batch.add(queue.take());
+                queue.drainTo(batch);
+                stopping = batch.remove(STOP);
+                write(batch);
+                synchronized (this) {
+                    written += batch.size();
+                    notifyAll();
+                }
+                batch.clear();
+            }
+        } catch (IOException exception) {
+            synchronized (this) {
+                failure = exception;
+                notifyAll();
+            }
+            queue.clear();
+        } catch (InterruptedException ignored) {
+            // stopped
+        } finally {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private void write(List<byte[]> batch) throws IOException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        ByteBuffer[] buffers = batch.stream().map(ByteBuffer::wrap).toArray(ByteBuffer[]::new);
+        long bytes = batch.stream().mapToLong(record -> record.length).sum();
+        for (long remaining = bytes; remaining > 0; ) {
+            remaining -= channel.write(buffers);
+        }
+        channel.force(false);
+        size += bytes;
+        if (size >= segmentSize) {
+            channel.close();
+            channel = open(++segment);
+            size = 0;
+            List<Path> segments = getSegments();
+            if (segments.size() > MAX_SEGMENTS + 1) {
+                compact(segments.subList(0, segments.size() - 1)); // all but the one we're writing
+            }
+        }
+    }
+
+    // replace the segments with one, keeping the latest delta per field and the `retain` most recent deltas.
+    // the compacted segment replaces the newest of them first, so that a crash part way leaves duplicates
+    // rather than gaps
+    private void compact(List<Path> segments) throws IOException {
+        List<Record> records = new ArrayList<>();
+        for (Path path : segments) {
+            records.addAll(read(path));
+        }
+        BitSet keep = new BitSet(records.size());
+        keep.set(Math.max(0, records.size() - retain), records.size());
+        Map<String,Integer> latest = new HashMap<>();
+        for (int i = 0; i < records.size(); i++) {
+            latest.put(records.get(i).field, i);
+        }
+        latest.values().forEach(keep::set);
+        Path last = segments.get(segments.size() - 1);
+        Path temporary = last.resolveSibling(last.getFileName() + ".tmp");
+        try (FileChannel out = open(temporary, REPLACE)) {
+            for (int i = keep.nextSetBit(0); i >= 0; i = keep.nextSetBit(i + 1)) {
+                ByteBuffer buffer = ByteBuffer.wrap(records.get(i).bytes);
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+            }
+            out.force(false);
+        }
+        Files.move(temporary, last, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        for (Path path : segments.subList(0, segments.size() - 1)) {
+            Files.delete(path);
+        }
+    }
+
+    private List<Path> getSegments() throws IOException {
+        try (Stream<Path> paths = Files.list(directory)) {
+            return paths
+                .filter(path -> path.getFileName().toString().endsWith(SUFFIX))
+                .sorted()
+                .collect(Collectors.toList());
+        }
+    }
+
+    private static long getNumber(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+    }
+
+    private FileChannel open(long number) throws IOException {
+        Path path = directory.resolve(String.format("%020d", number) + SUFFIX);
+        return open(path, APPEND);
+    }
+
+    // the permissions only apply if the file is created
+    private static FileChannel open(Path path, Set<StandardOpenOption> options) throws IOException {
+        if (isPosix(path)) {
+            return FileChannel.open(path, options, PosixFilePermissions.asFileAttribute(OWNER_FILE));
+        }
+        return FileChannel.open(path, options);
+    }
+
+    private static void createDirectories(Path directory) throws IOException {
+        if (!isPosix(directory)) {
+            Files.createDirectories(directory);
+            return;
+        }
+        Files.createDirectories(directory, PosixFilePermissions.asFileAttribute(OWNER_DIRECTORY));
+        // it may have been there already
+        Files.setPosixFilePermissions(directory, OWNER_DIRECTORY);
+    }
+
+    private static boolean isPosix(Path path) {
+        return path.getFileSystem().supportedFileAttributeViews().contains("posix");
+    }
+
+    // each record is its length, its checksum, and then the timestamp, mechanism, field and values
+    private static byte[] encode(Delta delta) {
+        try {
+            ByteArrayOutputStream payload = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(payload);
+            out.writeLong(delta.timestamp);
+            writeString(out, delta.mechanism == null ? "" : delta.mechanism.name());
+            writeString(out, Utils.encodeField(delta.field));
+            writeString(out, toJson(delta.oldVal));
+            writeString(out, toJson(delta.newVal));
+            byte[] bytes = payload.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(bytes);
+            return ByteBuffer.allocate(8 + bytes.length)
+                .putInt(bytes.length)
+                .putInt((int) crc.getValue())
+                .put(bytes)
+                .array();
+        } catch (IOException impossible) {
+            throw new ConfigurationException("Unable to encode `" + delta.field + '`', impossible);
+        }
+    }
+
+    // the segment's records, up to the first that's incomplete or corrupt
+    private static List<Record> read(Path segment) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(segment));
+        List<Record> records = new ArrayList<>();
+        while (buffer.remaining() >= 8) {
+            int start = buffer.position();
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (length < 0 || length > buffer.remaining()) {
+                break;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(buffer.array(), buffer.position(), length);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            long timestamp = buffer.getLong();
+            String mechanism = readString(buffer);
+            String field = readString(buffer);
+            String oldVal = readString(buffer);
+            String newVal = readString(buffer);
+            byte[] bytes = new byte[buffer.position() - start];
+            System.arraycopy(buffer.array(), start, bytes, 0, bytes.length);
+            records.add(new Record(timestamp, mechanism, field, oldVal, newVal, bytes));
+        }
+        return records;
+    }
+
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        String string = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return string;
+    }
+
+    private static String toJson(Object value) {
+        try {
+            return GSON.toJson(value);
+        } catch (RuntimeException | StackOverflowError exception) {
+            return "null"; // not representable, so can't be replayed
+        }
+    }
+
+    // the value, or else its JSON (eg, if the field's type has changed since)
+    private static Object fromJson(String json, Field field) {
+        try {
+            return GSON.fromJson(json, field.getGenericType());
+        } catch (RuntimeException exception) {
+            return json;
+        }
+    }
+
+    private static Mechanisms getMechanism(String name) {
+        try {
+            return name.isEmpty() ? null : Mechanisms.valueOf(name);
+        } catch (IllegalArgumentException exception) {
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,14 @@
+package io.osowa.anyfig;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+// marks a type whose instances are immutable, so that Coercer's cache (if enabled) may share one coerced
+// instance between many fields
+
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface Immutable {
+}
@@ -1,71 +1,143 @@
 package io.osowa.anyfig;
 
+import com.google.common.collect.MapMaker;
+
 import io.osowa.anyfig.utils.Utils;
 
 import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+// the registered callbacks and remote keys.  lookups (for every configured field and every Remote API request)
+// vastly outnumber registrations, so everything lives in an immutable snapshot that is read without locking;
+// registrations copy the part of the snapshot they change and publish a new snapshot, under the lock.  each
+// snapshot memoizes, per field, the callbacks resolved from the field, class, package and global
+// registrations, so publishing a new snapshot also invalidates the memo, unless only the remote keys changed.
+// configuring a static field registers its remote key every time, so re-registering a key for the same field
+// changes nothing, and publishes nothing
 
 public class Registrar {
 
-    public Callbacks globalCallbacks = null;
-    public final Map<String,Callbacks> packageCallbacks = new HashMap<>();
-    public final Map<Class,Callbacks> classCallbacks = new HashMap<>();
-    public final Map<Object,Callbacks> objectCallbacks = new HashMap<>();
-    public final Map<Field,Callbacks> fieldCallbacks = new HashMap<>();
+    private static class Snapshot {
+
+        Callbacks globalCallbacks = null;
+        Map<String,Callbacks> packageCallbacks = Collections.emptyMap();
+        PackageTrie packageTrie = new PackageTrie();
+        Map<Class<?>,Callbacks> classCallbacks = Collections.emptyMap();
+        Map<Object,Callbacks> objectCallbacks = Collections.emptyMap();
+        Map<Field,Callbacks> fieldCallbacks = Collections.emptyMap();
+        List<Consumer<List<Delta>>> batchCallbacks = Collections.emptyList();
+        Map<String,Field> remoteKeys = Collections.emptyMap();
+
+        // fields are held weakly (and compared by identity, which is fine for the fields of a ClassPlan)
+        ConcurrentMap<Field,Optional<Callbacks>> resolved = new MapMaker().weakKeys().makeMap();
+
+        // how many snapshots were published before this one
+        final long version;
+
+        Snapshot() {
+            version = 0;
+        }
+
+        // shares everything but the memo with `other`, until replaced
+        Snapshot(Snapshot other) {
+            version = other.version + 1;
+            globalCallbacks = other.globalCallbacks;
+            packageCallbacks = other.packageCallbacks;
+            packageTrie = other.packageTrie;
+            classCallbacks = other.classCallbacks;
+            objectCallbacks = other.objectCallbacks;
+            fieldCallbacks = other.fieldCallbacks;
+            batchCallbacks = other.batchCallbacks;
+            remoteKeys = other.remoteKeys;
+        }
+
+    }
 
-    public final Map<String,Field> remoteKeys = new HashMap<>();
+    private volatile Snapshot snapshot = new Snapshot();
 
     public synchronized void register(Callbacks callbacks) {
-        globalCallbacks = callbacks;
+        Snapshot next = new Snapshot(snapshot);
+        next.globalCallbacks = callbacks;
+        snapshot = next;
     }
 
-    public synchronized void register(Callbacks callbacks, Package pkg) {
-        packageCallbacks.put(pkg.getName(), callbacks);
+    public synchronized void register(Callbacks callbacks, Package... packages) {
+        Snapshot next = new Snapshot(snapshot);
+        next.packageCallbacks = with(next.packageCallbacks, packages, Package::getName, callbacks);
+        next.packageTrie = new PackageTrie(next.packageCallbacks);
+        snapshot = next;
     }
 
-    public synchronized void register(Callbacks callbacks, Class<?> clazz) {
-        classCallbacks.put(clazz, callbacks);
+    public synchronized void register(Callbacks callbacks, Class<?>... classes) {
+        Snapshot next = new Snapshot(snapshot);
+        next.classCallbacks = with(next.classCallbacks, classes, Function.identity(), callbacks);
+        snapshot = next;
     }
 
-    public synchronized void register(Callbacks callbacks, Object object) {
-        objectCallbacks.put(object, callbacks);
+    public synchronized void register(Callbacks callbacks, Object... objects) {
+        Snapshot next = new Snapshot(snapshot);
+        next.objectCallbacks = with(next.objectCallbacks, objects, Function.identity(), callbacks);
+        snapshot = next;
     }
 
-    public synchronized void register(Callbacks callbacks, Field field) {
-        fieldCallbacks.put(field, callbacks);
+    public synchronized void register(Callbacks callbacks, Field... fields) {
+        Snapshot next = new Snapshot(snapshot);
+        next.fieldCallbacks = with(next.fieldCallbacks, fields, Function.identity(), callbacks);
+        snapshot = next;
     }
 
-    public synchronized Optional<Callbacks> getCallbacks(Optional<Object> object, Field field) {
-        if (fieldCallbacks.containsKey(field)) {
-            return Optional.of(fieldCallbacks.get(field));
+    public synchronized void registerBatch(Consumer<List<Delta>> callback) {
+        Snapshot next = new Snapshot(snapshot);
+        List<Consumer<List<Delta>>> batchCallbacks = new ArrayList<>(next.batchCallbacks);
+        batchCallbacks.add(callback);
+        next.batchCallbacks = Collections.unmodifiableList(batchCallbacks);
+        snapshot = next;
+    }
+
+    public List<Consumer<List<Delta>>> getBatchCallbacks() {
+        return snapshot.batchCallbacks;
+    }
+
+    public Optional<Callbacks> getCallbacks(Optional<Object> object, Field field) {
+        Snapshot snapshot = this.snapshot;
+        if (object.isPresent() && !snapshot.objectCallbacks.isEmpty() && !snapshot.fieldCallbacks.containsKey(field)) {
+            Callbacks callbacks = snapshot.objectCallbacks.get(object.get());
+            if (callbacks != null) {
+                return Optional.of(callbacks);
+            }
         }
-        if (object.isPresent() && objectCallbacks.containsKey(object.get())) {
-            return Optional.of(objectCallbacks.get(object.get()));
+        return snapshot.resolved.computeIfAbsent(field, ignored -> resolve(snapshot, field));
+    }
+
+    // the callbacks for the field, ignoring objects: field, then class, then package (or the nearest ancestor
+    // package), then global
+    private static Optional<Callbacks> resolve(Snapshot snapshot, Field field) {
+        Callbacks callbacks = snapshot.fieldCallbacks.get(field);
+        if (callbacks != null) {
+            return Optional.of(callbacks);
         }
         Class<?> clazz = field.getDeclaringClass();
-        if (classCallbacks.containsKey(clazz)) {
-            return Optional.of(classCallbacks.get(field.getDeclaringClass()));
+        callbacks = snapshot.classCallbacks.get(clazz);
+        if (callbacks != null) {
+            return Optional.of(callbacks);
         }
         Package pkg = clazz.getPackage();
         if (pkg != null) {
-            // package foo.bar.baz: check (foo.bar.baz, foo.bar, foo) in that order up to the root
-            String name = pkg.getName();
-            while (true) {
-                if (packageCallbacks.containsKey(name)) {
-                    return Optional.of(packageCallbacks.get(name));
-                }
-                int lastdot = name.lastIndexOf('.');
-                if (lastdot == -1) break; // we've reached the root
-                name = name.substring(0, lastdot);
+            callbacks = snapshot.packageTrie.get(pkg.getName());
+            if (callbacks != null) {
+                return Optional.of(callbacks);
             }
         }
-        if (globalCallbacks != null) {
-            return Optional.of(globalCallbacks);
-        }
-        return Optional.empty();
+        return Optional.ofNullable(snapshot.globalCallbacks);
     }
 
     public synchronized void registerRemote(Field field, Configurable annotation) {
@@ -73,15 +145,80 @@ public class Registrar {
         if (key.isEmpty()) {
             key = Utils.encodeField(field);
         }
-        remoteKeys.put(key, field);
+        if (snapshot.remoteKeys.get(key) == field) {
+            return; // already registered
+        }
+        Snapshot next = new Snapshot(snapshot);
+        next.remoteKeys = with(next.remoteKeys, new String[] { key }, Function.identity(), field);
+        next.resolved = snapshot.resolved; // the callbacks are unchanged
+        snapshot = next;
     }
 
-    public synchronized Set<String> enumerateRemote() {
-        return remoteKeys.keySet();
+    // the keys registered so far; unaffected by later registrations
+    public Set<String> enumerateRemote() {
+        return snapshot.remoteKeys.keySet();
     }
 
-    public synchronized Optional<Field> getRemoteKey(String key) {
-        return Optional.ofNullable(remoteKeys.get(key));
+    public Optional<Field> getRemoteKey(String key) {
+        return Optional.ofNullable(snapshot.remoteKeys.get(key));
+    }
+
+    // the number of times the registrations have changed so far
+    public long getVersion() {
+        return snapshot.version;
+    }
+
+    // the number of fields whose callbacks are memoized in the current snapshot
+    public int getMemoized() {
+        return snapshot.resolved.size();
+    }
+
+    // package callbacks, by package name segment, so that a package's nearest registered ancestor is found in one
+    // walk down from the root
+    private static class PackageTrie {
+
+        private final Map<String,PackageTrie> children = new HashMap<>();
+        private Callbacks callbacks = null;
+
+        PackageTrie() {
+        }
+
+        PackageTrie(Map<String,Callbacks> packages) {
+            for (Map.Entry<String,Callbacks> entry : packages.entrySet()) {
+                PackageTrie node = this;
+                for (String segment : entry.getKey().split("\\.")) {
+                    node = node.children.computeIfAbsent(segment, ignored -> new PackageTrie());
+                }
+                node.callbacks = entry.getValue();
+            }
+        }
+
+        // the callbacks of the package or its nearest ancestor, if any
+        Callbacks get(String pkg) {
+            Callbacks found = null;
+            PackageTrie node = this;
+            int start = 0;
+            while (node != null && start <= pkg.length()) {
+                int dot = pkg.indexOf('.', start);
+                int end = dot == -1 ? pkg.length() : dot;
+                node = node.children.get(pkg.substring(start, end));
+                if (node != null && node.callbacks != null) {
+                    found = node.callbacks;
+                }
+                start = end + 1;
+            }
+            return found;
+        }
+
+    }
+
+    // a copy of `map`, with each of the targets (or rather, its key) mapped to `value`
+    private static <K,T,V> Map<K,V> with(Map<K,V> map, T[] targets, Function<? super T,? extends K> key, V value) {
+        Map<K,V> copy = new HashMap<>(map);
+        for (T target : targets) {
+            copy.put(key.apply(target), value);
+        }
+        return Collections.unmodifiableMap(copy);
     }
 
 }
@@ -1,20 +1,51 @@
 package io.osowa.anyfig;
 
+import com.google.common.collect.MapMaker;
+
 import io.osowa.anyfig.mechanisms.Mechanism;
 import io.osowa.anyfig.mechanisms.Mechanisms;
 import io.osowa.anyfig.mechanisms.RootMechanism;
+import io.osowa.anyfig.mechanisms.SourceSnapshot;
 import io.osowa.anyfig.utils.Pair;
 import io.osowa.anyfig.utils.Possible;
 
-import java.lang.reflect.Field;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+
+// retrieves a field's value from the first mechanism in the chain that has one.  the chain is compiled once per
+// field into just the mechanisms that could apply to it (eg, without literals unless the field has one), and
+// then simply walked.
 
 public class Retriever {
 
-    private final Mechanism rootMechanism = new RootMechanism();
+    private final RootMechanism rootMechanism;
+    private final ConcurrentMap<FieldPlan,Mechanism[]> chains = new MapMaker().weakKeys().makeMap();
 
-    public Possible<Pair<Object,Mechanisms>> retrieve(Field field, Configurable annotation, String[] args) throws Exception {
-        return rootMechanism.apply(field, annotation, args);
+    public Retriever() {
+        this(RootMechanism.getDefaultMechanisms());
     }
 
-}
+    public Retriever(List<Mechanism> mechanisms) {
+        this.rootMechanism = new RootMechanism(mechanisms);
+    }
 
+    public List<Mechanism> getMechanisms() {
+        return rootMechanism.getMechanisms();
+    }
+
+    public Possible<Pair<Object,Mechanisms>> retrieve(FieldPlan plan, SourceSnapshot sources) throws Exception {
+        Mechanism[] chain = chains.get(plan);
+        if (chain == null) {
+            chain = rootMechanism.compile(plan);
+            chains.put(plan, chain);
+        }
+        for (Mechanism mechanism : chain) {
+            Possible<Pair<Object,Mechanisms>> value = mechanism.apply(plan, sources);
+            if (value.present()) {
+                return value;
+            }
+        }
+        return Possible.absent();
+    }
+
+}
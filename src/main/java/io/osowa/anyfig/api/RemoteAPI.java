@@ -39,6 +39,9 @@ public interface RemoteAPI {
         public final static String DEFAULT_DATA_DIR = System.getProperty("java.io.tmpdir") + File.separator + Anyfig.class.getName();
         @Configurable(property="anyfig.remote-api.dataDir", envvar="ANYFIG_REMOTE_API_DATA_DIR", argument="anyfigRemoteAPIDataDir")
         public String dataDir;
+        // persist the history, and so the values set through this API, in dataDir (see Anyfig.enableHistoryLog)
+        @Configurable(property="anyfig.remote-api.persistent", envvar="ANYFIG_REMOTE_API_PERSISTENT", argument="anyfigRemoteAPIPersistent")
+        public boolean persistent;
         // auth token
         @Configurable(property="anyfig.remote-api.token", envvar="ANYFIG_REMOTE_API_TOKEN", argument="anyfigRemoteAPIToken", blockremote=true, redact=true)
         public String token = null; // by default there is _no_ auth token!
@@ -77,4 +80,26 @@ public interface RemoteAPI {
         // this space intentionally left blank
     }
 
+    public static class HistoryEntry {
+        public String key;
+        public String mechanism;
+        public long timestamp;
+        public Object oldVal;
+        public Object newVal;
+    }
+
+    public static class HistoryResponse extends Response {
+        public List<HistoryEntry> entries; // GET /anyfig-history?key=foo&from=0&to=1000&after=cursor&limit=100
+        public String next;                // the `after` cursor for the next page, or null if this is the last
+    }
+
+    public static class RollbackRequest {
+        public Long timestamp; // POST /anyfig-history {"timestamp": 1234}: undo every change after this time
+        public Integer count;  // POST /anyfig-history {"count": 3}: undo the latest 3 changes
+    }
+
+    public static class RollbackResponse extends Response {
+        public List<HistoryEntry> entries; // the fields that were restored
+    }
+
 }
@@ -11,6 +11,7 @@ import io.osowa.anyfig.api.RemoteAPI;
 import java.lang.reflect.Field;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Optional;
 
@@ -116,6 +117,8 @@ public class AnyfigService extends StatelessService {
             boolean unknown = false;
             String key = null;
             try {
+                // resolve every key before setting anything, then set the lot as one transaction
+                Map<Field, Object> fields = new LinkedHashMap<>();
                 for (Map.Entry<String, Object> entry : values.entrySet()) {
                     key = entry.getKey();
                     Optional<Field> field = anyfig.getRemoteKey(key);
@@ -124,15 +127,17 @@ public class AnyfigService extends StatelessService {
                             blocked = true;
                             throw new RuntimeException();
                         } else {
-                            anyfig.remoteSet(field.get(), entry.getValue());
+                            fields.put(field.get(), entry.getValue());
                         }
                     } else {
                         unknown = true;
                         throw new RuntimeException();
                     }
                 }
+                anyfig.remoteSet(fields);
             } catch (Exception failure) {
-                // TODO: Rollback values that were already set?  Or at least tell the client?  Eeek, yuck, ...
+                // nothing was set: remoteSet only throws before the group is committed (it rolls back a group
+                // that fails part way, and once committed, failing callbacks are reported rather than thrown)
                 int code = Operation.STATUS_CODE_BAD_REQUEST;
                 if (blocked) {
                     // paranoia: we refuse to register blocked fields, so we never actually get here
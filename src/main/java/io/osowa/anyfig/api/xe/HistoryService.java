@@ -0,0 +1,166 @@
+package io.osowa.anyfig.api.xe;
+
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.StatelessService;
+import com.vmware.xenon.common.UriUtils;
+
+import io.osowa.anyfig.Anyfig;
+import io.osowa.anyfig.Configurable;
+import io.osowa.anyfig.ConfigurationException;
+import io.osowa.anyfig.Delta;
+import io.osowa.anyfig.History;
+import io.osowa.anyfig.api.RemoteAPI;
+import io.osowa.anyfig.utils.Utils;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+// public client-facing service for the history of the remote fields: GET /anyfig-history, optionally with `key`,
+// `from` and `to` (millis since the epoch; [from, to)), `after` (the `next` cursor from the previous page) and
+// `limit`.  Xe can't stream a response body, so rather than building one large response, results come a page at
+// a time; a page may hold fewer than `limit` entries (deltas to fields that aren't remote are skipped), so keep
+// going until `next` is null.  POST /anyfig-history rolls the remote fields back, either to a timestamp or by a
+// number of changes to remote fields (see Anyfig.rollbackTo); fields that aren't remote are left alone
+
+public class HistoryService extends StatelessService {
+
+    public final Anyfig anyfig;
+
+    public static final String SELF_LINK = "/anyfig-history";
+
+    public static final int DEFAULT_LIMIT = 100;
+    public static final int MAX_LIMIT = 1000;
+
+    private static final String KEY = "key";
+    private static final String FROM = "from";
+    private static final String TO = "to";
+    private static final String AFTER = "after";
+    private static final String LIMIT = "limit";
+
+    public HistoryService(Anyfig anyfig) {
+        this.anyfig = anyfig;
+    }
+
+    private boolean enforceAuthorization(Operation op) {
+        boolean a = ((Host)getHost()).isAuthorized(op);
+        if (!a) {
+            op.setStatusCode(Operation.STATUS_CODE_UNAUTHORIZED);
+            op.setBody(XeRemoteAPI.InvalidToken.SINGLETON);
+            op.complete();
+        }
+        return a;
+    }
+
+    public void handleGet(Operation get) {
+        if (!enforceAuthorization(get)) {
+            return;
+        }
+        Map<String,String> params = UriUtils.parseUriQueryParams(get.getUri());
+        RemoteAPI.HistoryResponse response = new RemoteAPI.HistoryResponse();
+        Map<Field,String> keys = getKeys();
+        Field field = null;
+        String key = params.get(KEY);
+        if (key != null) {
+            Optional<Field> found = anyfig.getRemoteKey(key);
+            if (!found.isPresent() || !keys.containsKey(found.get())) {
+                response.error = "Field `" + key + "` does not exist";
+                get.setStatusCode(Operation.STATUS_CODE_NOT_FOUND);
+                get.setBody(response);
+                get.complete();
+                return;
+            }
+            field = found.get();
+        }
+        try {
+            long from = getLong(params, FROM, Long.MIN_VALUE);
+            long to = getLong(params, TO, Long.MAX_VALUE);
+            int limit = (int) Math.min(getLong(params, LIMIT, DEFAULT_LIMIT), MAX_LIMIT);
+            if (limit <= 0) {
+                throw new ConfigurationException("Invalid `" + LIMIT + "` " + limit);
+            }
+            History.Page page = anyfig.getHistory(field, from, to, params.get(AFTER), limit);
+            response.entries = new ArrayList<>(page.deltas.size());
+            for (Delta delta : page.deltas) {
+                // the history also holds the deltas to instance fields, which share the static fields' keys
+                if (keys.containsKey(delta.field) && Utils.isStatic(delta.field)) {
+                    response.entries.add(toEntry(keys.get(delta.field), delta));
+                }
+            }
+            response.next = page.next;
+        } catch (ConfigurationException failure) {
+            response.error = failure.getMessage();
+            get.setStatusCode(Operation.STATUS_CODE_BAD_REQUEST);
+        }
+        get.setBody(response);
+        get.complete();
+    }
+
+    public void handlePost(Operation post) {
+        if (!enforceAuthorization(post)) {
+            return;
+        }
+        RemoteAPI.RollbackRequest request = post.getBody(RemoteAPI.RollbackRequest.class);
+        RemoteAPI.RollbackResponse response = new RemoteAPI.RollbackResponse();
+        Map<Field,String> keys = getKeys();
+        try {
+            List<Delta> deltas;
+            if (request.timestamp != null && request.count == null) {
+                deltas = anyfig.rollbackTo(request.timestamp, keys::containsKey);
+            } else if (request.count != null && request.timestamp == null) {
+                deltas = anyfig.rollback(request.count, keys::containsKey);
+            } else {
+                throw new ConfigurationException("Specify either `timestamp` or `count`");
+            }
+            response.entries = new ArrayList<>(deltas.size());
+            for (Delta delta : deltas) {
+                response.entries.add(toEntry(keys.get(delta.field), delta));
+            }
+        } catch (Exception failure) {
+            // nothing was restored: a rollback is one transaction, which only throws before it's committed
+            response.error = "Failure while rolling back: " + failure;
+            post.setStatusCode(Operation.STATUS_CODE_BAD_REQUEST);
+        }
+        post.setBody(response);
+        post.complete();
+    }
+
+    // the remote keys, by field (blocked fields are never registered, but check anyway)
+    private Map<Field,String> getKeys() {
+        Map<Field,String> keys = new HashMap<>();
+        for (String key : anyfig.remoteEnumerate()) {
+            Optional<Field> field = anyfig.getRemoteKey(key);
+            if (field.isPresent() && !Utils.getAnnotation(field.get()).blockremote()) {
+                keys.put(field.get(), key);
+            }
+        }
+        return keys;
+    }
+
+    private static RemoteAPI.HistoryEntry toEntry(String key, Delta delta) {
+        RemoteAPI.HistoryEntry entry = new RemoteAPI.HistoryEntry();
+        Configurable annotation = delta.annotation;
+        entry.key = key;
+        entry.mechanism = String.valueOf(delta.mechanism);
+        entry.timestamp = delta.timestamp;
+        entry.oldVal = annotation.redact() ? Utils.REDACTED : delta.oldVal;
+        entry.newVal = annotation.redact() ? Utils.REDACTED : delta.newVal;
+        return entry;
+    }
+
+    private static long getLong(Map<String,String> params, String name, long fallback) {
+        String value = params.get(name);
+        if (value == null) {
+            return fallback;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException exception) {
+            throw new ConfigurationException("Invalid `" + name + "` `" + value + '`', exception);
+        }
+    }
+
+}
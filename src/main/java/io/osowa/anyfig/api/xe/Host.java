@@ -47,6 +47,7 @@ public class Host extends ServiceHost {
     public Host start() throws Throwable {
         super.start();
         startService(new AnyfigService(anyfig));
+        startService(new HistoryService(anyfig));
         return this;
     }
 
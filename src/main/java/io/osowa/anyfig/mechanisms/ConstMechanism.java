@@ -2,71 +2,153 @@ package io.osowa.anyfig.mechanisms;
 
 import com.google.common.base.CaseFormat;
 
+import io.osowa.anyfig.Configurable;
 import io.osowa.anyfig.ConfigurationException;
+import io.osowa.anyfig.FieldPlan;
 import io.osowa.anyfig.utils.Pair;
 import io.osowa.anyfig.utils.Possible;
 import io.osowa.anyfig.utils.Utils;
 
 import java.lang.reflect.Field;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// constants are found through two caches: each class's static fields, indexed by name; and, for constants
+// in other classes, those classes, resolved by name through the class loader of the field's own class (with
+// misses cached too).  so after the first lookup, probing for a constant that doesn't exist costs a couple of
+// hash lookups rather than a Class.forName, a scan of the declared fields, and an exception.
 
 public class ConstMechanism extends SequentialMechanism {
 
-    private final Mechanism defaultConstMechanism = (field, annotation, args) -> {
-        if (!annotation.constant().isEmpty()) {
-            return Possible.absent();
+    private final Mechanism defaultConstMechanism = new Mechanism() {
+        @Override
+        public Possible<Pair<Object,Mechanisms>> apply(FieldPlan plan, SourceSnapshot sources) {
+            if (!plan.annotation.constant().isEmpty()) {
+                return Possible.absent();
+            }
+            // we guess at the name of the constant; if it's not there, no big deal, just proceed to the other mechanisms
+            return tryConstant(plan);
         }
-        String constant = field.getName(); // someField
-        constant = CaseFormat.LOWER_CAMEL.to(CaseFormat.UPPER_UNDERSCORE, constant); // SOME_FIELD
-        final String DEFAULT_CONST_PREFIX = "DEFAULT_";
-        constant = DEFAULT_CONST_PREFIX + constant; // DEFAULT_SOME_FIELD
-        try {
-            return tryConstant(constant, field.getDeclaringClass().getName());
-        } catch (Exception ignored) {
-            // we guessed for the name of the constant, but couldn't find it; no big deal, just proceed to the other mechanisms
-            // TODO: Interesting... Our tests have zero coverage here??!!
-            return Possible.absent();
+        @Override
+        public boolean applies(FieldPlan plan) {
+            return plan.annotation.constant().isEmpty();
+        }
+    };
+
+    private final Mechanism customConstMechanism = new Mechanism() {
+        @Override
+        public Possible<Pair<Object,Mechanisms>> apply(FieldPlan plan, SourceSnapshot sources) {
+            Configurable annotation = plan.annotation;
+            if (annotation.constant().isEmpty()) {
+                return Possible.absent();
+            }
+            Possible<Pair<Object,Mechanisms>> pair = tryConstant(plan);
+            if (pair.present()) {
+                return pair;
+            } else {
+                throw new ConfigurationException("Unable to find constant `" + annotation.constant() + '`');
+            }
+        }
+        @Override
+        public boolean applies(FieldPlan plan) {
+            return !plan.annotation.constant().isEmpty();
         }
     };
 
-    private final Mechanism customConstMechanism = (field, annotation, args) -> {
+    // the (class, constant) to try for the given field: either (some.pkg.Class, DEFAULT_SOME_FIELD) by default,
+    // or the constant named by the annotation, which is either SOME_CONST or some.pkg.Class.SOME_CONST
+    public static Pair<String,String> makeCandidate(String className, String fieldName, Configurable annotation) {
         String constant = annotation.constant();
         if (constant.isEmpty()) {
-            return Possible.absent();
-        }
-        String className = field.getDeclaringClass().getName(); // either SOME_CONST or some.pkg.Class.SOME_CONST
-        if (constant.contains(".")) {
+            constant = fieldName; // someField
+            constant = CaseFormat.LOWER_CAMEL.to(CaseFormat.UPPER_UNDERSCORE, constant); // SOME_FIELD
+            final String DEFAULT_CONST_PREFIX = "DEFAULT_";
+            constant = DEFAULT_CONST_PREFIX + constant; // DEFAULT_SOME_FIELD
+        } else if (constant.contains(".")) {
             Pair<String,String> decoded = Utils.decodeFieldKey(constant);
             className = decoded.left; // some.pkg.Class
             constant = decoded.right; // SOME_CONST
         }
-        Possible<Pair<Object,Mechanisms>> pair;
+        return Pair.of(className, constant);
+    }
+
+    private Possible<Pair<Object,Mechanisms>> tryConstant(FieldPlan plan) {
+        LOOKUPS.increment();
+        Class<?> context = plan.field.getDeclaringClass();
+        Optional<Class<?>> clazz = context.getName().equals(plan.constantClass)
+            ? Optional.of(context)
+            : CLASSES.get(context).computeIfAbsent(plan.constantClass, name -> resolve(name, context.getClassLoader()));
+        if (!clazz.isPresent()) {
+            return Possible.absent();
+        }
+        Field field = CONSTANTS.get(clazz.get()).get(plan.constant);
+        if (field == null) {
+            return Possible.absent();
+        }
+        FOUND.increment();
         try {
-             pair = tryConstant(constant, className);
+            return Possible.of(Pair.of(Utils.getField(field), Mechanisms.CONSTANT));
         } catch (Exception exception) {
-            // TODO: It seems weird to have both this throw and the one a few lines down?!!?
-            throw new ConfigurationException("Failure while getting constant `" + annotation.constant() + '`', exception);
+            throw new ConfigurationException("Failure while getting constant `" + field + '`', exception);
         }
-        if (pair.present()) {
-            return pair;
-        } else {
-            // TODO: It seems weird to have both this throw and the one a few lines up!??!
-            throw new ConfigurationException("Unable to find constant `" + annotation.constant() + '`');
+    }
+
+    // static fields by name (note that we intentionally don't verify that they are `final`)
+    private static final ClassValue<Map<String,Field>> CONSTANTS = new ClassValue<Map<String,Field>>() {
+        @Override
+        protected Map<String,Field> computeValue(Class<?> clazz) {
+            REFLECTED.increment();
+            Map<String,Field> constants = new HashMap<>();
+            for (Field field : clazz.getDeclaredFields()) {
+                if (Utils.isStatic(field)) {
+                    constants.put(field.getName(), field);
+                }
+            }
+            return constants;
         }
     };
 
-    private Possible<Pair<Object,Mechanisms>> tryConstant(String constant, String className) throws Exception {
-        Class<?> clazz = Class.forName(className);
-        // yes, it would be simpler to use `clazz.getDeclaredField(constant)` but that
-        // doesn't work for private fields (?!!?), so we search for it instead:
-        for (Field field : clazz.getDeclaredFields()) {
-            // note that we intentionally don't actually verify that the field is `final`
-            if (field.getName().equals(constant) && Utils.isStatic(field)) {
-                return Possible.of(Pair.of(Utils.getField(field), Mechanisms.CONSTANT));
+    // per class: other classes named by its fields' constants, or empty if they don't exist
+    private static final ClassValue<ConcurrentMap<String,Optional<Class<?>>>> CLASSES =
+        new ClassValue<ConcurrentMap<String,Optional<Class<?>>>>() {
+            @Override
+            protected ConcurrentMap<String,Optional<Class<?>>> computeValue(Class<?> clazz) {
+                return new ConcurrentHashMap<>();
             }
+        };
+
+    private static Optional<Class<?>> resolve(String name, ClassLoader loader) {
+        REFLECTED.increment();
+        try {
+            return Optional.of(Class.forName(name, false, loader));
+        } catch (ClassNotFoundException ignored) {
+            return Optional.empty();
         }
-        return Possible.absent();
+    }
+
+    // counters: constants looked up; constants found; and cache misses, ie reflection to index a class or to
+    // resolve a class name (everything else is answered from the caches)
+
+    private static final LongAdder LOOKUPS = new LongAdder();
+    private static final LongAdder FOUND = new LongAdder();
+    private static final LongAdder REFLECTED = new LongAdder();
+
+    public static long getLookups() {
+        return LOOKUPS.sum();
+    }
+
+    public static long getFound() {
+        return FOUND.sum();
+    }
+
+    public static long getReflected() {
+        return REFLECTED.sum();
     }
 
     private final List<Mechanism> mechanisms = Arrays.asList(
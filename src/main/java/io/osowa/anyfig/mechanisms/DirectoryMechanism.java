@@ -0,0 +1,297 @@
+package io.osowa.anyfig.mechanisms;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import io.osowa.anyfig.ConfigurationException;
+import io.osowa.anyfig.FieldPlan;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// values from directories with one file per key (eg, mounted Kubernetes ConfigMaps and Secrets), listed
+// (separated by File.pathSeparator, earlier directories taking precedence) in the `anyfig.directories` property
+// or else the ANYFIG_DIRECTORIES environment variable.  the keys are the same as for files (see FileMechanism).
+// kubernetes publishes a new version of the bundle by atomically swapping the `..data` symlink to a new
+// timestamped directory: such directories are read as a whole, once per version, so that a snapshot never mixes
+// old and new values.  plain directories are read lazily, key by key, with the values cached until the file's
+// identity (inode) or modification time changes.
+
+public class DirectoryMechanism extends KeyValueMechanism {
+
+    public static final String DIRECTORIES_PROPERTY = "anyfig.directories";
+    public static final String DIRECTORIES_ENVVAR = "ANYFIG_DIRECTORIES";
+
+    private static final String DATA = "..data";
+    private static final long CACHE_SIZE = 1024;
+
+    // per directory, the most recently read version of its bundle (for `..data` layouts)
+    private static final ConcurrentMap<Path,Bundle> BUNDLES = new ConcurrentHashMap<>();
+
+    // per file, its value (for plain layouts)
+    private static final Cache<Path,Value> VALUES = CacheBuilder.newBuilder().maximumSize(CACHE_SIZE).build();
+
+    private static final LongAdder READS = new LongAdder();
+
+    // the directories read so far (see getPaths)
+    private static final Set<Path> DIRECTORIES = ConcurrentHashMap.newKeySet();
+
+    @Override
+    public Mechanisms getMechanism() {
+        return Mechanisms.DIRECTORY;
+    }
+
+    @Override
+    protected Map<String,String> getMap(SourceSnapshot sources) {
+        return sources.directories;
+    }
+
+    @Override
+    protected String[] getCandidates(FieldPlan plan) {
+        return plan.files;
+    }
+
+    // the directories named by the given environment variables and properties, as captured by SourceSnapshot
+    static Map<String,String> getDirectories(Map<String,String> envvars, Map<String,String> properties) {
+        String names = properties.getOrDefault(DIRECTORIES_PROPERTY, envvars.get(DIRECTORIES_ENVVAR));
+        if (names == null || names.trim().isEmpty()) {
+            return Collections.emptyMap();
+        }
+        List<Map<String,String>> directories = new ArrayList<>();
+        for (String name : names.split(File.pathSeparator)) {
+            if (!name.trim().isEmpty()) {
+                Path dir = Paths.get(name.trim()).toAbsolutePath();
+                DIRECTORIES.add(dir);
+                if (Files.isSymbolicLink(dir.resolve(DATA))) {
+                    directories.add(getBundle(dir));
+                } else {
+                    directories.add(new Lazy(dir));
+                }
+            }
+        }
+        return new Directories(directories);
+    }
+
+    // the keys whose values changed between two snapshots of the same directories (see SourceSnapshot.refresh);
+    // only bundles are compared, since plain directories are read lazily
+    public static Set<String> getChangedKeys(SourceSnapshot before, SourceSnapshot after) {
+        if (!(before.directories instanceof Directories) || !(after.directories instanceof Directories)) {
+            return Collections.emptySet();
+        }
+        List<Map<String,String>> oldDirectories = ((Directories) before.directories).directories;
+        List<Map<String,String>> newDirectories = ((Directories) after.directories).directories;
+        Set<String> changed = new HashSet<>();
+        for (int i = 0; i < Math.min(oldDirectories.size(), newDirectories.size()); i++) {
+            Map<String,String> oldDirectory = oldDirectories.get(i);
+            Map<String,String> newDirectory = newDirectories.get(i);
+            if (oldDirectory != newDirectory && oldDirectory instanceof Bundle && newDirectory instanceof Bundle) {
+                Set<String> keys = new HashSet<>(oldDirectory.keySet());
+                keys.addAll(newDirectory.keySet());
+                for (String key : keys) {
+                    if (!Objects.equals(oldDirectory.get(key), newDirectory.get(key))) {
+                        changed.add(key);
+                    }
+                }
+            }
+        }
+        return changed;
+    }
+
+    // the directories that have been read so far.  a `..data` swap (or a change to a plain directory's files)
+    // is an event in the directory itself, so watch these rather than their files
+    public static Set<Path> getPaths() {
+        return Collections.unmodifiableSet(DIRECTORIES);
+    }
+
+    // the number of files read so far (everything else is answered from the caches)
+    public static long getReads() {
+        return READS.sum();
+    }
+
+    private static Bundle getBundle(Path dir) {
+        Path version;
+        try {
+            version = dir.resolve(DATA).toRealPath();
+        } catch (IOException exception) {
+            throw new ConfigurationException("Unable to resolve `" + dir.resolve(DATA) + '`', exception);
+        }
+        return BUNDLES.compute(
+            dir, (ignored, bundle) -> bundle != null && bundle.version.equals(version) ? bundle : new Bundle(version));
+    }
+
+    // a file's value, without the trailing newline that editors (and `kubectl create --from-file`) tend to add
+    private static String read(Path file) throws IOException {
+        READS.increment();
+        String value = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        if (value.endsWith("\n")) {
+            value = value.substring(0, value.length() - (value.endsWith("\r\n") ? 2 : 1));
+        }
+        return value;
+    }
+
+    // keys name files directly in the directory, so they can't be used to escape it
+    private static boolean isFileName(String key) {
+        return
+            !key.isEmpty() && !key.startsWith(".") && key.indexOf('/') == -1 && key.indexOf(File.separatorChar) == -1;
+    }
+
+    // one version of a `..data` bundle, read as a whole
+    private static class Bundle extends AbstractMap<String,String> {
+
+        private final Path version;
+        private final Map<String,String> values = new HashMap<>();
+
+        Bundle(Path version) {
+            this.version = version;
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(version)) {
+                for (Path file : files) {
+                    String key = file.getFileName().toString();
+                    if (isFileName(key) && Files.isRegularFile(file)) {
+                        values.put(key, read(file));
+                    }
+                }
+            } catch (IOException exception) {
+                throw new ConfigurationException("Unable to read `" + version + '`', exception);
+            }
+        }
+
+        @Override
+        public String get(Object key) {
+            return values.get(key);
+        }
+
+        @Override
+        public Set<Entry<String,String>> entrySet() {
+            return Collections.unmodifiableMap(values).entrySet();
+        }
+
+    }
+
+    // the identity and modification time of a file, with its value
+    private static class Value {
+
+        final Object identity;
+        final long modified;
+        final String value;
+
+        Value(BasicFileAttributes attributes, String value) {
+            this.identity = attributes.fileKey();
+            this.modified = attributes.lastModifiedTime().toMillis();
+            this.value = value;
+        }
+
+        boolean isCurrent(BasicFileAttributes attributes) {
+            return identity != null
+                && identity.equals(attributes.fileKey())
+                && modified == attributes.lastModifiedTime().toMillis();
+        }
+
+    }
+
+    // a plain directory, read key by key
+    private static class Lazy extends AbstractMap<String,String> {
+
+        private final Path dir;
+
+        Lazy(Path dir) {
+            this.dir = dir;
+        }
+
+        @Override
+        public String get(Object key) {
+            if (!(key instanceof String) || !isFileName((String) key)) {
+                return null;
+            }
+            Path file = dir.resolve((String) key);
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                if (!attributes.isRegularFile()) {
+                    return null;
+                }
+                Value value = VALUES.getIfPresent(file);
+                if (value == null || !value.isCurrent(attributes)) {
+                    value = new Value(attributes, read(file));
+                    VALUES.put(file, value);
+                }
+                return value.value;
+            } catch (IOException exception) {
+                return null; // no such key
+            }
+        }
+
+        @Override
+        public Set<Entry<String,String>> entrySet() {
+            Map<String,String> map = new LinkedHashMap<>();
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+                for (Path file : files) {
+                    String value = get(file.getFileName().toString());
+                    if (value != null) {
+                        map.put(file.getFileName().toString(), value);
+                    }
+                }
+            } catch (IOException exception) {
+                throw new ConfigurationException("Unable to read `" + dir + '`', exception);
+            }
+            return Collections.unmodifiableMap(map).entrySet();
+        }
+
+    }
+
+    // a read-only view of several directories, in order of precedence
+    private static class Directories extends AbstractMap<String,String> {
+
+        private final List<Map<String,String>> directories;
+
+        Directories(List<Map<String,String>> directories) {
+            this.directories = directories;
+        }
+
+        @Override
+        public String get(Object key) {
+            for (Map<String,String> directory : directories) {
+                String value = directory.get(key);
+                if (value != null) {
+                    return value;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        @Override
+        public Set<Entry<String,String>> entrySet() {
+            Map<String,String> map = new LinkedHashMap<>();
+            for (Map<String,String> directory : directories) {
+                for (Entry<String,String> entry : directory.entrySet()) {
+                    map.putIfAbsent(entry.getKey(), entry.getValue());
+                }
+            }
+            return Collections.unmodifiableMap(map).entrySet();
+        }
+
+    }
+
+}
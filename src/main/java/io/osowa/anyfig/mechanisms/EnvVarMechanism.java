@@ -3,18 +3,17 @@ package io.osowa.anyfig.mechanisms;
 import com.google.common.base.CaseFormat;
 
 import io.osowa.anyfig.Configurable;
+import io.osowa.anyfig.FieldPlan;
 import io.osowa.anyfig.utils.Utils;
 
-import java.lang.reflect.Field;
-import java.util.Arrays;
-import java.util.List;
-import java.util.Optional;
+import java.util.Map;
+import java.util.function.Supplier;
 
 public class EnvVarMechanism extends KeyValueMechanism {
 
-    private static final SimpleMap STANDARD_GET_ENV_VAR = key -> Optional.ofNullable(System.getenv(key));
+    private static final Supplier<Map<String,String>> STANDARD_GET_ENV_VARS = System::getenv;
 
-    private static SimpleMap getEnvVar = STANDARD_GET_ENV_VAR;
+    private static Supplier<Map<String,String>> getEnvVars = STANDARD_GET_ENV_VARS;
 
     @Override
     public Mechanisms getMechanism() {
@@ -22,25 +21,34 @@ public class EnvVarMechanism extends KeyValueMechanism {
     }
 
     @Override
-    protected SimpleMap makeMap(String[] ignored) {
-        return getEnvVar;
+    protected Map<String,String> getMap(SourceSnapshot sources) {
+        return sources.envvars;
+    }
+
+    // the environment, as captured by SourceSnapshot
+    static Map<String,String> getEnvVars() {
+        return getEnvVars.get();
     }
 
     @Override
-    protected List<String> makeCandidates(Field field, Configurable annotation) {
+    protected String[] getCandidates(FieldPlan plan) {
+        return plan.envvars;
+    }
+
+    public static String[] makeCandidates(String className, String fieldName, Configurable annotation) {
         String envVar = annotation.envvar();
         if (envVar.isEmpty()) {
-            envVar = CaseFormat.LOWER_CAMEL.to(CaseFormat.UPPER_UNDERSCORE, field.getName()); // someField -> SOME_FIELD
+            envVar = CaseFormat.LOWER_CAMEL.to(CaseFormat.UPPER_UNDERSCORE, fieldName); // someField -> SOME_FIELD
         }
-        return Arrays.asList(envVar);
+        return new String[] { envVar };
     }
 
     // intended for test code; normal clients do not need this method
     public static void withProperties(Utils.FallibleRunnable action, String... strings) throws Exception {
         withTemporaryMap(
             action,
-            gev -> getEnvVar = gev,
-            () -> STANDARD_GET_ENV_VAR,
+            gev -> getEnvVars = gev,
+            STANDARD_GET_ENV_VARS,
             strings);
     }
 
@@ -0,0 +1,151 @@
+package io.osowa.anyfig.mechanisms;
+
+import io.osowa.anyfig.Configurable;
+import io.osowa.anyfig.ConfigurationException;
+import io.osowa.anyfig.FieldPlan;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+// values from .properties and flat JSON files, listed (separated by File.pathSeparator, earlier files taking
+// precedence) in the `anyfig.files` property or else the ANYFIG_FILES environment variable.  each file is
+// memory-mapped and indexed once (see IndexedFile), and re-indexed only when it changes.
+
+public class FileMechanism extends KeyValueMechanism {
+
+    public static final String FILES_PROPERTY = "anyfig.files";
+    public static final String FILES_ENVVAR = "ANYFIG_FILES";
+
+    private static final ConcurrentMap<Path,IndexedFile> FILES = new ConcurrentHashMap<>();
+
+    @Override
+    public Mechanisms getMechanism() {
+        return Mechanisms.FILE;
+    }
+
+    @Override
+    protected Map<String,String> getMap(SourceSnapshot sources) {
+        return sources.files;
+    }
+
+    @Override
+    protected String[] getCandidates(FieldPlan plan) {
+        return plan.files;
+    }
+
+    public static String[] makeCandidates(String className, String fieldName, Configurable annotation) {
+        String key = annotation.file();
+        if (key.isEmpty()) {
+            return new String[] {
+                fieldName, // someField
+                className + '.' + fieldName // some.package.SomeClass.someField
+            };
+        } else {
+            return new String[] { key };
+        }
+    }
+
+    // the files named by the given environment variables and properties, as captured by SourceSnapshot
+    static Map<String,String> getFiles(Map<String,String> envvars, Map<String,String> properties) {
+        String names = properties.getOrDefault(FILES_PROPERTY, envvars.get(FILES_ENVVAR));
+        if (names == null || names.trim().isEmpty()) {
+            return Collections.emptyMap();
+        }
+        List<IndexedFile> files = new ArrayList<>();
+        for (String name : names.split(File.pathSeparator)) {
+            if (!name.trim().isEmpty()) {
+                files.add(FILES.compute(Paths.get(name.trim()).toAbsolutePath(), FileMechanism::index));
+            }
+        }
+        return new IndexedFiles(files);
+    }
+
+    // the keys whose values changed between two snapshots of the same files (see SourceSnapshot.refresh)
+    public static Set<String> getChangedKeys(SourceSnapshot before, SourceSnapshot after) {
+        if (!(before.files instanceof IndexedFiles) || !(after.files instanceof IndexedFiles)) {
+            return Collections.emptySet();
+        }
+        List<IndexedFile> oldFiles = ((IndexedFiles) before.files).files;
+        List<IndexedFile> newFiles = ((IndexedFiles) after.files).files;
+        Set<String> changed = new HashSet<>();
+        for (int i = 0; i < Math.min(oldFiles.size(), newFiles.size()); i++) {
+            if (oldFiles.get(i) != newFiles.get(i)) {
+                changed.addAll(oldFiles.get(i).diff(newFiles.get(i)));
+            }
+        }
+        return changed;
+    }
+
+    // the files that have been indexed so far
+    public static Set<Path> getPaths() {
+        return Collections.unmodifiableSet(FILES.keySet());
+    }
+
+    private static IndexedFile index(Path path, IndexedFile indexed) {
+        if (indexed != null && !indexed.isStale()) {
+            return indexed;
+        }
+        try {
+            return IndexedFile.open(path);
+        } catch (IOException exception) {
+            throw new ConfigurationException("Unable to read configuration file `" + path + '`', exception);
+        }
+    }
+
+    // a read-only view of several files, in order of precedence; get() decodes just the one value
+    private static class IndexedFiles extends AbstractMap<String,String> {
+
+        private final List<IndexedFile> files;
+
+        IndexedFiles(List<IndexedFile> files) {
+            this.files = files;
+        }
+
+        @Override
+        public String get(Object key) {
+            if (key instanceof String) {
+                for (IndexedFile file : files) {
+                    String value = file.get((String) key);
+                    if (value != null) {
+                        return value;
+                    }
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        // decodes everything; not used by the mechanism itself
+        @Override
+        public Set<Entry<String,String>> entrySet() {
+            Map<String,String> map = new LinkedHashMap<>();
+            for (IndexedFile file : files) {
+                for (String key : file.keys()) {
+                    String value = file.get(key);
+                    if (value != null) {
+                        map.putIfAbsent(key, value);
+                    }
+                }
+            }
+            return Collections.unmodifiableMap(map).entrySet();
+        }
+
+    }
+
+}
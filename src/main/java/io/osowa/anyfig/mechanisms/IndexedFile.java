@@ -0,0 +1,457 @@
+package io.osowa.anyfig.mechanisms;
+
+import io.osowa.anyfig.ConfigurationException;
+import io.osowa.anyfig.utils.Pair;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+// a .properties or flat JSON file, memory-mapped and indexed once: the index maps each key to the span of its
+// raw (still escaped) value, so values are decoded only for the keys that fields actually ask for.  the raw
+// values are copied out of the mapping once indexed, since the file may later be rewritten or truncated in place,
+// and a snapshot may still hold this index.
+// .properties files follow java.util.Properties (ISO-8859-1, escapes, continuation lines; the last occurrence
+// of a key wins); JSON files (UTF-8) are a single object whose string values are unescaped and whose other
+// values (numbers, booleans, nested objects and arrays) are passed on as JSON text, and `null` means absent.
+
+class IndexedFile {
+
+    final Path path;
+    final long size;
+    final long modified;
+
+    // the mapped file while indexing, then just the raw values; read only through absolute gets, so safe to share
+    // between threads
+    private ByteBuffer buffer;
+    private final boolean json;
+
+    // open addressing: keys[i] is at spans[i] = start << 32 | end, and hashes[i] is a hash of its raw value (so
+    // that indexes can be compared without reading an old mapping, whose file may have since been truncated)
+    private String[] keys = new String[16];
+    private long[] spans = new long[16];
+    private long[] hashes = new long[16];
+    private int count;
+
+    // the most recent diff, since many snapshots typically share the same pair of files
+    private volatile Pair<IndexedFile,Set<String>> diff = Pair.of(null, null);
+
+    private IndexedFile(Path path, long size, long modified, ByteBuffer buffer) {
+        this.path = path;
+        this.size = size;
+        this.modified = modified;
+        this.buffer = buffer;
+        this.json = path.getFileName().toString().toLowerCase().endsWith(".json");
+        if (json) {
+            indexJson();
+        } else {
+            indexProperties();
+        }
+        detach();
+    }
+
+    static IndexedFile open(Path path) throws IOException {
+        long modified = Files.getLastModifiedTime(path).toMillis();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new ConfigurationException("Configuration file `" + path + "` is too large");
+            }
+            try {
+                return new IndexedFile(path, size, modified, channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+            } catch (InternalError error) {
+                // the mapping was truncated under us
+                throw new IOException("Configuration file `" + path + "` changed while being indexed", error);
+            }
+        }
+    }
+
+    // has the file changed since it was indexed?
+    boolean isStale() {
+        try {
+            return Files.size(path) != size || Files.getLastModifiedTime(path).toMillis() != modified;
+        } catch (IOException exception) {
+            return true;
+        }
+    }
+
+    int size() {
+        return count;
+    }
+
+    // the decoded value of the given key, or null if the key is absent
+    String get(String key) {
+        int slot = find(key);
+        if (keys[slot] == null) {
+            return null;
+        }
+        long span = spans[slot];
+        int start = (int) (span >>> 32), end = (int) span;
+        return json ? decodeJsonValue(start, end) : decodeProperty(start, end);
+    }
+
+    // the keys, in no particular order
+    String[] keys() {
+        return Arrays.stream(keys).filter(key -> key != null).toArray(String[]::new);
+    }
+
+    // the keys whose values differ between this file and `other`, including keys present in only one of them
+    Set<String> diff(IndexedFile other) {
+        Pair<IndexedFile,Set<String>> last = diff;
+        if (last.left == other) {
+            return last.right;
+        }
+        Set<String> changed = new HashSet<>();
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] != null) {
+                int theirs = other.find(keys[slot]);
+                if (other.keys[theirs] == null || other.hashes[theirs] != hashes[slot]) {
+                    changed.add(keys[slot]);
+                }
+            }
+        }
+        for (String key : other.keys) {
+            if (key != null && keys[find(key)] == null) {
+                changed.add(key);
+            }
+        }
+        last = Pair.of(other, Collections.unmodifiableSet(changed));
+        diff = last;
+        return last.right;
+    }
+
+    private int find(String key) {
+        int mask = keys.length - 1;
+        int slot = mix(key.hashCode()) & mask;
+        while (keys[slot] != null && !keys[slot].equals(key)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private void put(String key, int start, int end) {
+        int slot = find(key);
+        if (keys[slot] == null) {
+            keys[slot] = key;
+            if (++count * 2 > keys.length) {
+                grow();
+                slot = find(key);
+            }
+        }
+        spans[slot] = (long) start << 32 | end;
+        hashes[slot] = hash(start, end);
+    }
+
+    // 64-bit FNV-1a
+    private long hash(int start, int end) {
+        long hash = 0xcbf29ce484222325L;
+        for (int p = start; p < end; p++) {
+            hash = (hash ^ at(p)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    // copy the raw values out of the mapping, and point the spans at the copies
+    private void detach() {
+        int total = 0;
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] != null) {
+                total += (int) spans[slot] - (int) (spans[slot] >>> 32);
+            }
+        }
+        byte[] values = new byte[total];
+        ByteBuffer dup = buffer.duplicate(); // so the mapping's own position is untouched
+        int offset = 0;
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] != null) {
+                int start = (int) (spans[slot] >>> 32), end = (int) spans[slot];
+                dup.position(start);
+                dup.get(values, offset, end - start);
+                spans[slot] = (long) offset << 32 | offset + end - start;
+                offset += end - start;
+            }
+        }
+        buffer = ByteBuffer.wrap(values);
+    }
+
+    private void grow() {
+        String[] oldKeys = keys;
+        long[] oldSpans = spans;
+        long[] oldHashes = hashes;
+        keys = new String[oldKeys.length * 2];
+        spans = new long[oldKeys.length * 2];
+        hashes = new long[oldKeys.length * 2];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                int slot = find(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                spans[slot] = oldSpans[i];
+                hashes[slot] = oldHashes[i];
+            }
+        }
+    }
+
+    private int at(int index) {
+        return buffer.get(index) & 0xff;
+    }
+
+    // .properties
+
+    private static boolean isWhitespace(int c) {
+        return c == ' ' || c == '\t' || c == '\f';
+    }
+
+    private static boolean isNewline(int c) {
+        return c == '\n' || c == '\r';
+    }
+
+    private void indexProperties() {
+        int limit = buffer.limit();
+        int p = 0;
+        while (p < limit) {
+            while (p < limit && (isWhitespace(at(p)) || isNewline(at(p)))) {
+                p++;
+            }
+            if (p == limit) {
+                break;
+            }
+            if (at(p) == '#' || at(p) == '!') {
+                while (p < limit && !isNewline(at(p))) {
+                    p++;
+                }
+                continue;
+            }
+            int end = endOfLogicalLine(p);
+            int keyStart = p;
+            while (p < end && at(p) != '=' && at(p) != ':' && !isWhitespace(at(p))) {
+                p += at(p) == '\\' ? 2 : 1;
+            }
+            int keyEnd = Math.min(p, end);
+            while (p < end && isWhitespace(at(p))) {
+                p++;
+            }
+            if (p < end && (at(p) == '=' || at(p) == ':')) {
+                p++;
+            }
+            while (p < end && isWhitespace(at(p))) {
+                p++;
+            }
+            put(decodeProperty(keyStart, keyEnd), p, end);
+            p = end;
+        }
+    }
+
+    // the end of the line starting at `p`, following continuations (lines ending in an odd number of backslashes)
+    private int endOfLogicalLine(int p) {
+        int limit = buffer.limit();
+        boolean escaped = false;
+        for (; p < limit; p++) {
+            int c = at(p);
+            if (isNewline(c)) {
+                if (!escaped) {
+                    return p;
+                }
+                if (c == '\r' && p + 1 < limit && at(p + 1) == '\n') {
+                    p++;
+                }
+                escaped = false;
+            } else {
+                escaped = c == '\\' && !escaped;
+            }
+        }
+        return limit;
+    }
+
+    private String decodeProperty(int start, int end) {
+        StringBuilder out = new StringBuilder(end - start);
+        int p = start;
+        while (p < end) {
+            char c = (char) at(p++);
+            if (c != '\\') {
+                out.append(c);
+                continue;
+            }
+            if (p == end) {
+                break;
+            }
+            c = (char) at(p++);
+            switch (c) {
+                case '\r':
+                    if (p < end && at(p) == '\n') {
+                        p++;
+                    }
+                    // fall through
+                case '\n':
+                    while (p < end && isWhitespace(at(p))) {
+                        p++;
+                    }
+                    break;
+                case 't': out.append('\t'); break;
+                case 'n': out.append('\n'); break;
+                case 'r': out.append('\r'); break;
+                case 'f': out.append('\f'); break;
+                case 'u':
+                    if (p + 4 > end) {
+                        throw new ConfigurationException("Malformed \\uxxxx escape in `" + path + '`');
+                    }
+                    out.append((char) hex(p, p + 4));
+                    p += 4;
+                    break;
+                default: out.append(c);
+            }
+        }
+        return out.toString();
+    }
+
+    private int hex(int start, int end) {
+        int value = 0;
+        for (int p = start; p < end; p++) {
+            int digit = Character.digit(at(p), 16);
+            if (digit < 0) {
+                throw new ConfigurationException("Malformed \\uxxxx escape in `" + path + '`');
+            }
+            value = value << 4 | digit;
+        }
+        return value;
+    }
+
+    // flat JSON
+
+    private int skipJsonWhitespace(int p) {
+        int limit = buffer.limit();
+        while (p < limit && (at(p) == ' ' || at(p) == '\t' || isNewline(at(p)))) {
+            p++;
+        }
+        return p;
+    }
+
+    private int expect(int p, char c) {
+        p = skipJsonWhitespace(p);
+        if (p == buffer.limit() || at(p) != c) {
+            throw new ConfigurationException("Expected `" + c + "` at offset " + p + " of `" + path + '`');
+        }
+        return p + 1;
+    }
+
+    // the end (after the closing quote) of the string starting (at the opening quote) at `p`
+    private int endOfJsonString(int p) {
+        int limit = buffer.limit();
+        for (p++; p < limit; p++) {
+            if (at(p) == '\\') {
+                p++;
+            } else if (at(p) == '"') {
+                return p + 1;
+            }
+        }
+        throw new ConfigurationException("Unterminated string in `" + path + '`');
+    }
+
+    // the end of the value (string, nested object or array, or literal) starting at `p`
+    private int endOfJsonValue(int p) {
+        int limit = buffer.limit();
+        if (p < limit && at(p) == '"') {
+            return endOfJsonString(p);
+        }
+        int depth = 0;
+        for (; p < limit; p++) {
+            int c = at(p);
+            if (c == '"') {
+                p = endOfJsonString(p) - 1;
+            } else if (c == '{' || c == '[') {
+                depth++;
+            } else if (c == '}' || c == ']') {
+                if (depth-- == 0) {
+                    return p;
+                }
+            } else if (depth == 0 && (c == ',' || c == ' ' || c == '\t' || isNewline(c))) {
+                return p;
+            }
+        }
+        return p;
+    }
+
+    private void indexJson() {
+        int p = expect(0, '{');
+        p = skipJsonWhitespace(p);
+        if (p < buffer.limit() && at(p) == '}') {
+            return;
+        }
+        while (true) {
+            p = expect(p, '"') - 1;
+            int keyEnd = endOfJsonString(p);
+            String key = decodeJsonString(p + 1, keyEnd - 1);
+            p = skipJsonWhitespace(expect(keyEnd, ':'));
+            int end = endOfJsonValue(p);
+            put(key, p, end);
+            p = skipJsonWhitespace(end);
+            if (p < buffer.limit() && at(p) == ',') {
+                p++;
+            } else {
+                expect(p, '}');
+                return;
+            }
+        }
+    }
+
+    private String decodeJsonValue(int start, int end) {
+        if (at(start) == '"') {
+            return decodeJsonString(start + 1, end - 1);
+        }
+        String text = utf8(start, end);
+        return text.equals("null") ? null : text;
+    }
+
+    private String decodeJsonString(int start, int end) {
+        String raw = utf8(start, end);
+        if (raw.indexOf('\\') == -1) {
+            return raw;
+        }
+        StringBuilder out = new StringBuilder(raw.length());
+        for (int i = 0; i < raw.length(); i++) {
+            char c = raw.charAt(i);
+            if (c != '\\' || i + 1 == raw.length()) {
+                out.append(c);
+                continue;
+            }
+            c = raw.charAt(++i);
+            switch (c) {
+                case 'b': out.append('\b'); break;
+                case 'f': out.append('\f'); break;
+                case 'n': out.append('\n'); break;
+                case 'r': out.append('\r'); break;
+                case 't': out.append('\t'); break;
+                case 'u':
+                    try {
+                        out.append((char) Integer.parseInt(raw.substring(i + 1, i + 5), 16));
+                    } catch (RuntimeException exception) {
+                        throw new ConfigurationException("Malformed \\uxxxx escape in `" + path + '`', exception);
+                    }
+                    i += 4;
+                    break;
+                default: out.append(c); // \" \\ \/
+            }
+        }
+        return out.toString();
+    }
+
+    private String utf8(int start, int end) {
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(start + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+}
@@ -1,37 +1,32 @@
 package io.osowa.anyfig.mechanisms;
 
-import io.osowa.anyfig.Configurable;
+import io.osowa.anyfig.FieldPlan;
 import io.osowa.anyfig.utils.Pair;
 import io.osowa.anyfig.utils.Possible;
 import io.osowa.anyfig.utils.Utils;
 
-import java.lang.reflect.Field;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 
 public abstract class KeyValueMechanism implements Mechanism {
 
-    protected interface SimpleMap {
-        Optional<String> get(String key);
-    }
-
-    abstract protected SimpleMap makeMap(String[] args);
+    // the snapshot's index for this mechanism's source
+    abstract protected Map<String,String> getMap(SourceSnapshot sources);
 
-    abstract protected List<String> makeCandidates(Field field, Configurable annotation);
+    // the candidate keys, precomputed by the field's plan
+    abstract protected String[] getCandidates(FieldPlan plan);
 
     abstract Mechanisms getMechanism();
 
     @Override
-    public Possible<Pair<Object,Mechanisms>> apply(Field field, Configurable annotation, String[] args) {
-        SimpleMap map = makeMap(args);
-        for (String key: makeCandidates(field, annotation)) {
-            Optional<String> value = map.get(key);
-            if (value.isPresent()) {
-                return Possible.of(Pair.of(value.get(), getMechanism()));
+    public Possible<Pair<Object,Mechanisms>> apply(FieldPlan plan, SourceSnapshot sources) {
+        Map<String,String> map = getMap(sources);
+        for (String key: getCandidates(plan)) {
+            String value = map.get(key);
+            if (value != null) {
+                return Possible.of(Pair.of(value, getMechanism()));
             }
         }
         return Possible.absent();
@@ -40,8 +35,8 @@ public abstract class KeyValueMechanism implements Mechanism {
     // for testing
     protected static void withTemporaryMap(
             Utils.FallibleRunnable action,
-            Consumer<SimpleMap> mapSetter,
-            Supplier<SimpleMap> standardMapGetter,
+            Consumer<Supplier<Map<String,String>>> mapSetter,
+            Supplier<Map<String,String>> standardMap,
             String [] pairs)
             throws Exception
     {
@@ -49,11 +44,11 @@ public abstract class KeyValueMechanism implements Mechanism {
         for (int i = 0; i < pairs.length; i += 2) {
             map.put(pairs[i], pairs[i+1]);
         }
-        mapSetter.accept(key -> Optional.ofNullable(map.get(key)));
+        mapSetter.accept(() -> map);
         try {
             action.run();
         } finally {
-            mapSetter.accept(standardMapGetter.get());
+            mapSetter.accept(standardMap);
         }
     }
 
@@ -1,15 +1,15 @@
 package io.osowa.anyfig.mechanisms;
 
 import io.osowa.anyfig.Configurable;
+import io.osowa.anyfig.FieldPlan;
 import io.osowa.anyfig.utils.Pair;
 import io.osowa.anyfig.utils.Possible;
 
-import java.lang.reflect.Field;
-
 public class LiteralMechanism implements Mechanism {
 
     @Override
-    public Possible<Pair<Object,Mechanisms>> apply(Field field, Configurable annotation, String[] args) {
+    public Possible<Pair<Object,Mechanisms>> apply(FieldPlan plan, SourceSnapshot sources) {
+        Configurable annotation = plan.annotation;
         if (annotation.literal()) {
             String value = annotation.value();
             if (value.isEmpty() && annotation.NULL()) {
@@ -21,4 +21,9 @@ public class LiteralMechanism implements Mechanism {
         }
     }
 
+    @Override
+    public boolean applies(FieldPlan plan) {
+        return plan.annotation.literal();
+    }
+
 }
@@ -1,15 +1,20 @@
 package io.osowa.anyfig.mechanisms;
 
-import io.osowa.anyfig.Configurable;
+import io.osowa.anyfig.FieldPlan;
 import io.osowa.anyfig.utils.Pair;
 import io.osowa.anyfig.utils.Possible;
 
-import java.lang.reflect.Field;
-
-// a Mechanism is a procedure for obtaining a field's value
+// a Mechanism is a procedure for obtaining a field's value.  custom mechanisms may be added to Anyfig's chain
+// (see Anyfig.setMechanisms), or discovered with java.util.ServiceLoader (see RootMechanism).
 
 public interface Mechanism {
 
-    Possible<Pair<Object,Mechanisms>> apply(Field field, Configurable annotation, String[] args);
+    Possible<Pair<Object,Mechanisms>> apply(FieldPlan plan, SourceSnapshot sources);
+
+    // could this mechanism ever retrieve a value for the field, whatever the sources?  if not, it is left out
+    // of the field's compiled chain (see SequentialMechanism.compile)
+    default boolean applies(FieldPlan plan) {
+        return true;
+    }
 
 }
@@ -7,6 +7,10 @@ public enum Mechanisms {
     PROPERTY,
     ARGUMENT,
     ENVVAR,
-    REMOTE // TODO
+    FILE,
+    DIRECTORY,
+    CUSTOM, // reported by custom mechanisms that have no better name
+    REMOTE,
+    ROLLBACK // restored from the history (see Anyfig.rollbackTo)
 
 }
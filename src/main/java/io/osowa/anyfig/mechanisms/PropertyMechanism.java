@@ -1,47 +1,65 @@
 package io.osowa.anyfig.mechanisms;
 
 import io.osowa.anyfig.Configurable;
+import io.osowa.anyfig.FieldPlan;
 import io.osowa.anyfig.utils.Utils;
 
-import java.lang.reflect.Field;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Optional;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.function.Supplier;
 
 public class PropertyMechanism extends KeyValueMechanism {
 
-    private static final SimpleMap STANDARD_GET_PROPERTY = key -> Optional.ofNullable(System.getProperty(key));
+    private static final Supplier<Map<String,String>> STANDARD_GET_PROPERTIES = () -> {
+        Properties properties = System.getProperties();
+        Map<String,String> map = new HashMap<>();
+        for (String key : properties.stringPropertyNames()) {
+            map.put(key, properties.getProperty(key));
+        }
+        return map;
+    };
 
-    private static SimpleMap getProperty = STANDARD_GET_PROPERTY;
+    private static Supplier<Map<String,String>> getProperties = STANDARD_GET_PROPERTIES;
 
     @Override
     public Mechanisms getMechanism() {
         return Mechanisms.PROPERTY;
     }
 
-    @Override protected SimpleMap makeMap(String[] ignored) {
-        return getProperty;
+    @Override
+    protected Map<String,String> getMap(SourceSnapshot sources) {
+        return sources.properties;
+    }
+
+    // the properties, as captured by SourceSnapshot
+    static Map<String,String> getProperties() {
+        return getProperties.get();
     }
 
     @Override
-    protected List<String> makeCandidates(Field field, Configurable annotation) {
-        List<String> candidates = new ArrayList<>(2);
+    protected String[] getCandidates(FieldPlan plan) {
+        return plan.properties;
+    }
+
+    public static String[] makeCandidates(String className, String fieldName, Configurable annotation) {
         String property = annotation.property();
         if (property.isEmpty()) {
-            candidates.add(field.getName()); // someField
-            candidates.add(Utils.encodeField(field)); // some.package.SomeClass.someField
+            return new String[] {
+                fieldName, // someField
+                className + '.' + fieldName // some.package.SomeClass.someField
+            };
         } else {
-            candidates.add(property);
+            return new String[] { property };
         }
-        return candidates;
     }
 
     // intended for test code; normal clients do not need this method
     public static void withProperties(Utils.FallibleRunnable action, String... strings) throws Exception {
         withTemporaryMap(
             action,
-            gp -> getProperty = gp,
-            () -> STANDARD_GET_PROPERTY,
+            gp -> getProperties = gp,
+            STANDARD_GET_PROPERTIES,
             strings);
     }
 
@@ -1,21 +1,129 @@
 package io.osowa.anyfig.mechanisms;
 
+import io.osowa.anyfig.ConfigurationException;
+
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.Set;
+
+// the chain of mechanisms, in order of precedence.  by default: environment variables, properties, arguments,
+// directories, files, any custom mechanisms discovered with ServiceLoader, constants and finally literals.
+// the `anyfig.mechanisms` property (or ANYFIG_MECHANISMS environment variable) overrides the order with a
+// comma-separated list of Mechanisms names and custom mechanisms' class names, eg "ARGUMENT,ENVVAR,LITERAL";
+// CUSTOM stands for the custom mechanisms that aren't listed by name.  mechanisms that aren't listed aren't
+// used.
 
 public class RootMechanism extends SequentialMechanism {
 
-    private final List<Mechanism> policies = Arrays.asList(
-        new EnvVarMechanism(),
-        new PropertyMechanism(),
-        new ArgsMechanism(),
-        new ConstMechanism(),
-        new LiteralMechanism()
+    public static final String MECHANISMS_PROPERTY = "anyfig.mechanisms";
+    public static final String MECHANISMS_ENVVAR = "ANYFIG_MECHANISMS";
+
+    private static final List<Mechanisms> DEFAULT_ORDER = Arrays.asList(
+        Mechanisms.ENVVAR,
+        Mechanisms.PROPERTY,
+        Mechanisms.ARGUMENT,
+        Mechanisms.DIRECTORY,
+        Mechanisms.FILE,
+        Mechanisms.CUSTOM,
+        Mechanisms.CONSTANT,
+        Mechanisms.LITERAL
     );
 
+    private final List<Mechanism> mechanisms;
+
+    public RootMechanism() {
+        this(getDefaultMechanisms());
+    }
+
+    public RootMechanism(List<Mechanism> mechanisms) {
+        this.mechanisms = Collections.unmodifiableList(new ArrayList<>(mechanisms));
+    }
+
     @Override
-    List<Mechanism> getMechanisms() {
-        return policies;
+    public List<Mechanism> getMechanisms() {
+        return mechanisms;
+    }
+
+    // the default chain, with custom mechanisms discovered through the context class loader
+    public static List<Mechanism> getDefaultMechanisms() {
+        return getDefaultMechanisms(Thread.currentThread().getContextClassLoader());
+    }
+
+    public static List<Mechanism> getDefaultMechanisms(ClassLoader loader) {
+        Map<String,String> properties = PropertyMechanism.getProperties();
+        String order = properties.getOrDefault(MECHANISMS_PROPERTY, EnvVarMechanism.getEnvVars().get(MECHANISMS_ENVVAR));
+        List<Mechanism> custom = new ArrayList<>();
+        for (Mechanism mechanism : ServiceLoader.load(Mechanism.class, loader)) {
+            custom.add(mechanism);
+        }
+        if (order == null || order.trim().isEmpty()) {
+            List<Mechanism> mechanisms = new ArrayList<>();
+            for (Mechanisms name : DEFAULT_ORDER) {
+                if (name == Mechanisms.CUSTOM) {
+                    mechanisms.addAll(custom);
+                } else {
+                    mechanisms.add(getBuiltIn(name));
+                }
+            }
+            return mechanisms;
+        }
+        return parse(order, custom);
+    }
+
+    // the chain named by a comma-separated list of Mechanisms names and (custom) class names
+    public static List<Mechanism> parse(String order, List<Mechanism> custom) {
+        Set<String> names = new HashSet<>();
+        for (String name : order.split(",")) {
+            names.add(name.trim());
+        }
+        List<Mechanism> mechanisms = new ArrayList<>();
+        for (String name : order.split(",")) {
+            name = name.trim();
+            if (name.isEmpty()) {
+                continue;
+            }
+            if (name.equals(Mechanisms.CUSTOM.name())) {
+                for (Mechanism candidate : custom) {
+                    if (!names.contains(candidate.getClass().getName())) {
+                        mechanisms.add(candidate);
+                    }
+                }
+                continue;
+            }
+            Mechanism mechanism = null;
+            for (Mechanism candidate : custom) {
+                if (candidate.getClass().getName().equals(name)) {
+                    mechanism = candidate;
+                }
+            }
+            if (mechanism == null) {
+                try {
+                    mechanism = getBuiltIn(Mechanisms.valueOf(name));
+                } catch (IllegalArgumentException exception) {
+                    throw new ConfigurationException("Unknown mechanism `" + name + '`', exception);
+                }
+            }
+            mechanisms.add(mechanism);
+        }
+        return mechanisms;
+    }
+
+    private static Mechanism getBuiltIn(Mechanisms name) {
+        switch (name) {
+            case ENVVAR: return new EnvVarMechanism();
+            case PROPERTY: return new PropertyMechanism();
+            case ARGUMENT: return new ArgsMechanism();
+            case DIRECTORY: return new DirectoryMechanism();
+            case FILE: return new FileMechanism();
+            case CONSTANT: return new ConstMechanism();
+            case LITERAL: return new LiteralMechanism();
+            default: throw new ConfigurationException("Not a built-in mechanism `" + name + '`');
+        }
     }
 
 }
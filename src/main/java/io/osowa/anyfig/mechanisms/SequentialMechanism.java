@@ -1,24 +1,47 @@
 package io.osowa.anyfig.mechanisms;
 
 
-import io.osowa.anyfig.Configurable;
+import io.osowa.anyfig.FieldPlan;
 import io.osowa.anyfig.utils.Pair;
 import io.osowa.anyfig.utils.Possible;
 
-import java.lang.reflect.Field;
+import java.util.ArrayList;
 import java.util.List;
 
 public abstract class SequentialMechanism implements Mechanism {
 
     abstract List<Mechanism> getMechanisms();
 
-    @Override public Possible<Pair<Object,Mechanisms>> apply(Field field, Configurable annotation, String[] args) {
-        return
-            getMechanisms().stream()
-            .map(mechanism -> mechanism.apply(field, annotation, args))
-            .filter(value -> value.present())
-            .findFirst()
-            .orElse(Possible.absent());
+    @Override public Possible<Pair<Object,Mechanisms>> apply(FieldPlan plan, SourceSnapshot sources) {
+        for (Mechanism mechanism : getMechanisms()) {
+            Possible<Pair<Object,Mechanisms>> value = mechanism.apply(plan, sources);
+            if (value.present()) {
+                return value;
+            }
+        }
+        return Possible.absent();
+    }
+
+    @Override public boolean applies(FieldPlan plan) {
+        return getMechanisms().stream().anyMatch(mechanism -> mechanism.applies(plan));
+    }
+
+    // the mechanisms that could apply to the given field, in order, with nested sequences flattened; trying
+    // them in turn is equivalent to apply(plan, sources), but without revisiting mechanisms that never apply
+    public Mechanism[] compile(FieldPlan plan) {
+        List<Mechanism> chain = new ArrayList<>();
+        compile(plan, chain);
+        return chain.toArray(new Mechanism[0]);
+    }
+
+    private void compile(FieldPlan plan, List<Mechanism> chain) {
+        for (Mechanism mechanism : getMechanisms()) {
+            if (mechanism instanceof SequentialMechanism) {
+                ((SequentialMechanism) mechanism).compile(plan, chain);
+            } else if (mechanism.applies(plan)) {
+                chain.add(mechanism);
+            }
+        }
     }
 
 }
@@ -0,0 +1,57 @@
+package io.osowa.anyfig.mechanisms;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+// an immutable, hash-indexed snapshot of the sources from which mechanisms retrieve values: environment
+// variables, properties, `--key=value` command-line arguments, mounted directories, and indexed configuration
+// files.  built once per Anyfig.configure(...) call and shared by every field of every object in that call (or
+// by several calls, if the caller wishes) so that mechanisms never rescan the arguments or query the system one
+// key at a time.
+
+public class SourceSnapshot {
+
+    private static final String PREFIX = "--";
+    private static final String SEPARATOR = "=";
+
+    public final Map<String,String> envvars;
+    public final Map<String,String> properties;
+    public final Map<String,String> arguments;
+    public final Map<String,String> directories; // values are read lazily, or as a whole per `..data` version
+    public final Map<String,String> files; // values are decoded lazily, on lookup
+
+    private SourceSnapshot(Map<String,String> envvars, Map<String,String> properties, Map<String,String> arguments) {
+        this.envvars = Collections.unmodifiableMap(envvars);
+        this.properties = Collections.unmodifiableMap(properties);
+        this.arguments = Collections.unmodifiableMap(arguments);
+        this.directories = DirectoryMechanism.getDirectories(this.envvars, this.properties);
+        this.files = FileMechanism.getFiles(this.envvars, this.properties);
+    }
+
+    public static SourceSnapshot of(String[] args) {
+        return new SourceSnapshot(EnvVarMechanism.getEnvVars(), PropertyMechanism.getProperties(), parse(args));
+    }
+
+    // the same environment variables, properties and arguments, but with the current versions of any files and
+    // directories that have since changed
+    public SourceSnapshot refresh() {
+        return new SourceSnapshot(envvars, properties, arguments);
+    }
+
+    // `--someField=value` --> someField: value; arguments that aren't of that form are ignored, and the first
+    // occurrence of a key wins
+    private static Map<String,String> parse(String[] args) {
+        Map<String,String> arguments = new HashMap<>();
+        for (String arg : args) {
+            if (arg.startsWith(PREFIX)) {
+                int separator = arg.indexOf(SEPARATOR, PREFIX.length());
+                if (separator != -1) {
+                    arguments.putIfAbsent(arg.substring(PREFIX.length(), separator), arg.substring(separator + SEPARATOR.length()));
+                }
+            }
+        }
+        return arguments;
+    }
+
+}
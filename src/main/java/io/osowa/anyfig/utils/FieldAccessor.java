@@ -0,0 +1,254 @@
+package io.osowa.anyfig.utils;
+
+import io.osowa.anyfig.ConfigurationException;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+
+// get and set a field without toggling its accessibility on every access.  static and instance fields
+// share the same shape: the object argument is simply ignored for static fields.  get one via
+// ClassPlan.accessor(field), which caches accessors per field.  accessors are either built from method
+// handles at run time (see `reflective`) or generated at compile time by the anyfig-processor.
+
+public abstract class FieldAccessor {
+
+    public final Field field;
+
+    protected FieldAccessor(Field field) {
+        this.field = field;
+    }
+
+    // `object` is ignored (and may be null) for static fields
+    public abstract Object get(Object object) throws Exception;
+
+    public abstract void set(Object object, Object value) throws Exception;
+
+    // primitive-specialized access, for fields of exactly the corresponding primitive type.  these defaults
+    // box; the reflective and generated accessors override them so that they don't
+
+    public int getInt(Object object) throws Exception {
+        return (Integer) get(object);
+    }
+
+    public void setInt(Object object, int value) throws Exception {
+        set(object, value);
+    }
+
+    public long getLong(Object object) throws Exception {
+        return (Long) get(object);
+    }
+
+    public void setLong(Object object, long value) throws Exception {
+        set(object, value);
+    }
+
+    public double getDouble(Object object) throws Exception {
+        return (Double) get(object);
+    }
+
+    public void setDouble(Object object, double value) throws Exception {
+        set(object, value);
+    }
+
+    public boolean getBoolean(Object object) throws Exception {
+        return (Boolean) get(object);
+    }
+
+    public void setBoolean(Object object, boolean value) throws Exception {
+        set(object, value);
+    }
+
+    public char getChar(Object object) throws Exception {
+        return (Character) get(object);
+    }
+
+    public void setChar(Object object, char value) throws Exception {
+        set(object, value);
+    }
+
+    public static FieldAccessor reflective(Field field) {
+        return new MethodHandleAccessor(field);
+    }
+
+    private static class MethodHandleAccessor extends FieldAccessor {
+
+        private static final MethodType GETTER = MethodType.methodType(Object.class, Object.class);
+        private static final MethodType SETTER = MethodType.methodType(void.class, Object.class, Object.class);
+
+        private final MethodHandle getter;
+        private final MethodHandle setter; // null for final fields
+        // (Object)p and (Object,p)void for primitive fields of type p; otherwise null
+        private final MethodHandle primitiveGetter;
+        private final MethodHandle primitiveSetter;
+
+        private MethodHandleAccessor(Field field) {
+            super(field);
+            try {
+                // work on our own copy so that we never change the accessibility of the caller's Field
+                Field copy = field.getDeclaringClass().getDeclaredField(field.getName());
+                copy.setAccessible(true);
+                MethodHandles.Lookup lookup = MethodHandles.lookup();
+                boolean isStatic = Utils.isStatic(field);
+                Class<?> type = field.getType();
+                boolean isFinal = Utils.isFinal(field);
+                MethodHandle rawGetter = lookup.unreflectGetter(copy);
+                MethodHandle rawSetter = isFinal ? null : lookup.unreflectSetter(copy);
+                getter = shape(rawGetter, isStatic, GETTER);
+                setter = isFinal ? null : shape(rawSetter, isStatic, SETTER);
+                primitiveGetter = type.isPrimitive() ? shape(rawGetter, isStatic, MethodType.methodType(type, Object.class)) : null;
+                primitiveSetter = type.isPrimitive() && !isFinal
+                    ? shape(rawSetter, isStatic, MethodType.methodType(void.class, Object.class, type))
+                    : null;
+            } catch (Exception exception) {
+                throw new ConfigurationException("Unable to access field `" + field + '`', exception);
+            }
+        }
+
+        private static MethodHandle shape(MethodHandle handle, boolean isStatic, MethodType type) {
+            if (isStatic) {
+                handle = MethodHandles.dropArguments(handle, 0, Object.class);
+            }
+            return handle.asType(type);
+        }
+
+        @Override
+        public Object get(Object object) throws Exception {
+            try {
+                return (Object) getter.invokeExact(object);
+            } catch (Throwable throwable) {
+                throw rethrow(throwable);
+            }
+        }
+
+        @Override
+        public void set(Object object, Object value) throws Exception {
+            if (setter == null) {
+                throw new ConfigurationException("Can't set final field `" + field + '`');
+            }
+            try {
+                setter.invokeExact(object, value);
+            } catch (Throwable throwable) {
+                throw rethrow(throwable);
+            }
+        }
+
+        @Override
+        public int getInt(Object object) throws Exception {
+            try {
+                return (int) primitiveGetter(Integer.TYPE).invokeExact(object);
+            } catch (Throwable throwable) {
+                throw rethrow(throwable);
+            }
+        }
+
+        @Override
+        public void setInt(Object object, int value) throws Exception {
+            try {
+                primitiveSetter(Integer.TYPE).invokeExact(object, value);
+            } catch (Throwable throwable) {
+                throw rethrow(throwable);
+            }
+        }
+
+        @Override
+        public long getLong(Object object) throws Exception {
+            try {
+                return (long) primitiveGetter(Long.TYPE).invokeExact(object);
+            } catch (Throwable throwable) {
+                throw rethrow(throwable);
+            }
+        }
+
+        @Override
+        public void setLong(Object object, long value) throws Exception {
+            try {
+                primitiveSetter(Long.TYPE).invokeExact(object, value);
+            } catch (Throwable throwable) {
+                throw rethrow(throwable);
+            }
+        }
+
+        @Override
+        public double getDouble(Object object) throws Exception {
+            try {
+                return (double) primitiveGetter(Double.TYPE).invokeExact(object);
+            } catch (Throwable throwable) {
+                throw rethrow(throwable);
+            }
+        }
+
+        @Override
+        public void setDouble(Object object, double value) throws Exception {
+            try {
+                primitiveSetter(Double.TYPE).invokeExact(object, value);
+            } catch (Throwable throwable) {
+                throw rethrow(throwable);
+            }
+        }
+
+        @Override
+        public boolean getBoolean(Object object) throws Exception {
+            try {
+                return (boolean) primitiveGetter(Boolean.TYPE).invokeExact(object);
+            } catch (Throwable throwable) {
+                throw rethrow(throwable);
+            }
+        }
+
+        @Override
+        public void setBoolean(Object object, boolean value) throws Exception {
+            try {
+                primitiveSetter(Boolean.TYPE).invokeExact(object, value);
+            } catch (Throwable throwable) {
+                throw rethrow(throwable);
+            }
+        }
+
+        @Override
+        public char getChar(Object object) throws Exception {
+            try {
+                return (char) primitiveGetter(Character.TYPE).invokeExact(object);
+            } catch (Throwable throwable) {
+                throw rethrow(throwable);
+            }
+        }
+
+        @Override
+        public void setChar(Object object, char value) throws Exception {
+            try {
+                primitiveSetter(Character.TYPE).invokeExact(object, value);
+            } catch (Throwable throwable) {
+                throw rethrow(throwable);
+            }
+        }
+
+        private MethodHandle primitiveGetter(Class<?> type) {
+            if (field.getType() != type) {
+                throw new ConfigurationException("Field `" + field + "` is not of type " + type);
+            }
+            return primitiveGetter;
+        }
+
+        private MethodHandle primitiveSetter(Class<?> type) {
+            primitiveGetter(type);
+            if (primitiveSetter == null) {
+                throw new ConfigurationException("Can't set final field `" + field + '`');
+            }
+            return primitiveSetter;
+        }
+
+    }
+
+    private static Exception rethrow(Throwable throwable) {
+        if (throwable instanceof Exception) {
+            return (Exception) throwable;
+        }
+        if (throwable instanceof Error) {
+            throw (Error) throwable;
+        }
+        return new RuntimeException(throwable);
+    }
+
+}
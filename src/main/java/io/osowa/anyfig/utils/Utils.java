@@ -1,6 +1,7 @@
 package io.osowa.anyfig.utils;
 
 import io.osowa.anyfig.Anyfig;
+import io.osowa.anyfig.ClassPlan;
 import io.osowa.anyfig.Coercer;
 import io.osowa.anyfig.Configurable;
 import io.osowa.anyfig.Delta;
@@ -159,11 +160,11 @@ public class Utils {
     }
 
     public static Object getField(Field field) throws Exception {
-        return whileAccessible(field, () -> field.get(null));
+        return ClassPlan.accessor(field).get(null);
     }
 
     public static void setField(Field field, Object value) throws Exception {
-        whileAccessible(field, () -> field.set(null, COERCER.coerce(value, field.getType())));
+        ClassPlan.accessor(field).set(null, COERCER.coerce(value, field.getGenericType(), getAnnotation(field).separator()));
     }
 
     public static Configurable getAnnotation(Field field) {
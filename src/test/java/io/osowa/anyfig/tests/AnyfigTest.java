@@ -5,26 +5,73 @@ import org.junit.Before;
 import org.junit.Test;
 
 import io.osowa.anyfig.Anyfig;
+import io.osowa.anyfig.ClassPlan;
 import io.osowa.anyfig.Configurable;
 import io.osowa.anyfig.ConfigurationException;
 import io.osowa.anyfig.Delta;
+import io.osowa.anyfig.Dispatcher;
+import io.osowa.anyfig.FieldPlan;
+import io.osowa.anyfig.History;
+import io.osowa.anyfig.mechanisms.ArgsMechanism;
+import io.osowa.anyfig.mechanisms.ConstMechanism;
+import io.osowa.anyfig.mechanisms.DirectoryMechanism;
 import io.osowa.anyfig.mechanisms.EnvVarMechanism;
 import io.osowa.anyfig.Failure;
+import io.osowa.anyfig.mechanisms.LiteralMechanism;
+import io.osowa.anyfig.mechanisms.Mechanism;
 import io.osowa.anyfig.mechanisms.Mechanisms;
 import io.osowa.anyfig.Payload;
+import io.osowa.anyfig.api.RemoteAPI;
 import io.osowa.anyfig.mechanisms.PropertyMechanism;
+import io.osowa.anyfig.mechanisms.RootMechanism;
+import io.osowa.anyfig.mechanisms.SourceSnapshot;
 import io.osowa.anyfig.other.TestOtherPackageCallbacks;
+import io.osowa.anyfig.tests.ignored.nested.TestIgnoredAncestorPackage;
 import io.osowa.anyfig.tests.subpackage.TestSubpackageCallbacks;
+import io.osowa.anyfig.utils.Pair;
+import io.osowa.anyfig.utils.Possible;
 
+import java.io.File;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class AnyfigTest {
 
@@ -467,6 +514,494 @@ public class AnyfigTest {
         private int field3;
     }
 
+    @Test
+    public void testMechanismOrder() throws Exception {
+        String[] args = { "--field1=2" };
+        EnvVarMechanism.withProperties(
+            () -> {
+                TestMechanismOrder test = new TestMechanismOrder();
+                anyfig.configure(args, test);
+                assertEquals(1, test.field1); // environment variables first, by default
+                anyfig.setMechanisms(RootMechanism.parse("ARGUMENT, ENVVAR", Collections.emptyList()));
+                anyfig.configure(args, test);
+                assertEquals(2, test.field1);
+            },
+            "FIELD1", "1");
+        PropertyMechanism.withProperties(
+            () -> {
+                try (Anyfig anyfig = new Anyfig()) {
+                    List<Mechanism> mechanisms = anyfig.getMechanisms();
+                    assertEquals(2, mechanisms.size());
+                    assertTrue(mechanisms.get(0) instanceof ArgsMechanism);
+                    assertTrue(mechanisms.get(1) instanceof LiteralMechanism);
+                }
+            },
+            "anyfig.mechanisms", "ARGUMENT,LITERAL");
+    }
+    private static class TestMechanismOrder {
+        private int field1;
+    }
+
+    @Test
+    public void testCompiledMechanisms() throws Exception {
+        RootMechanism root = new RootMechanism();
+        Mechanism[] plain = root.compile(ClassPlan.of(TestCompiledMechanisms.class.getDeclaredField("plain")));
+        Mechanism[] literal = root.compile(ClassPlan.of(TestCompiledMechanisms.class.getDeclaredField("literal")));
+        assertEquals(7, root.getMechanisms().size());
+        // one of the two constant mechanisms, and no literal mechanism
+        assertEquals(6, plain.length);
+        assertTrue(Arrays.stream(plain).noneMatch(mechanism -> mechanism instanceof LiteralMechanism));
+        assertEquals(7, literal.length);
+        assertTrue(literal[6] instanceof LiteralMechanism);
+    }
+    private static class TestCompiledMechanisms {
+        private int plain;
+        @Configurable(literal = true, value = "1")
+        private int literal;
+    }
+
+    @Test
+    public void testCustomMechanism() throws Exception {
+        Path dir = Files.createTempDirectory("anyfig");
+        Path services = dir.resolve("META-INF").resolve("services").resolve(Mechanism.class.getName());
+        Files.createDirectories(services.getParent());
+        Files.write(services, Arrays.asList(TestCustomMechanism.class.getName()));
+        try (URLClassLoader loader = new URLClassLoader(new URL[] { dir.toUri().toURL() }, getClass().getClassLoader())) {
+            List<Mechanism> mechanisms = RootMechanism.getDefaultMechanisms(loader);
+            // after the sources, but before constants and literals
+            assertTrue(mechanisms.get(5) instanceof TestCustomMechanism);
+            assertTrue(mechanisms.get(6) instanceof ConstMechanism);
+            anyfig.setMechanisms(mechanisms);
+            // CUSTOM stands for the custom mechanisms that aren't named
+            List<Mechanism> custom = Collections.singletonList(mechanisms.get(5));
+            List<Mechanism> parsed = RootMechanism.parse("CUSTOM,LITERAL", custom);
+            assertEquals(2, parsed.size());
+            assertTrue(parsed.get(0) instanceof TestCustomMechanism);
+            parsed = RootMechanism.parse("CUSTOM," + TestCustomMechanism.class.getName(), custom);
+            assertEquals(1, parsed.size());
+        }
+        TestCustomMechanismFields test = new TestCustomMechanismFields();
+        anyfig.configure(callback, failureCallback, test);
+        assertEquals(42, test.custom);
+        assertEquals(Mechanisms.CUSTOM, deltas.get(0).mechanism);
+    }
+    public static class TestCustomMechanism implements Mechanism {
+        @Override
+        public Possible<Pair<Object,Mechanisms>> apply(FieldPlan plan, SourceSnapshot sources) {
+            return Possible.of(Pair.of("42", Mechanisms.CUSTOM));
+        }
+        @Override
+        public boolean applies(FieldPlan plan) {
+            return plan.field.getName().equals("custom");
+        }
+    }
+    private static class TestCustomMechanismFields {
+        private int custom;
+    }
+
+    @Test
+    public void testRemoteSet() throws Exception {
+        anyfig.register(callback, failureCallback, TestRemoteSet.class);
+        List<List<Delta>> batches = new ArrayList<>();
+        anyfig.registerBatch(batch -> {
+            // after the per-field callbacks
+            assertEquals(batch, deltas);
+            batches.add(batch);
+        });
+        Field field1 = TestRemoteSet.class.getDeclaredField("field1");
+        Field field2 = TestRemoteSet.class.getDeclaredField("field2");
+        Field field3 = TestRemoteSet.class.getDeclaredField("field3");
+        Map<Field,Object> values = new LinkedHashMap<>();
+        values.put(field2, "b");
+        values.put(field1, "1");
+        values.put(field3, Arrays.asList("x", "y"));
+        List<Delta> set = anyfig.remoteSet(values);
+        assertEquals(1, TestRemoteSet.field1);
+        assertEquals("b", TestRemoteSet.field2);
+        assertEquals(Arrays.asList("x", "y"), TestRemoteSet.field3);
+        // one group, in order, recorded and reported like any other mechanism's
+        assertEquals(3, set.size());
+        assertEquals(set, deltas);
+        assertEquals(set, anyfig.getHistory());
+        assertEquals(field2, set.get(0).field);
+        assertEquals(field1, set.get(1).field);
+        assertEquals(field3, set.get(2).field);
+        assertTrue(set.stream().allMatch(delta -> delta.mechanism == Mechanisms.REMOTE));
+        assertEquals(1, batches.size());
+        assertEquals(set, batches.get(0));
+        // unchanged values produce no delta, and no batch
+        assertTrue(anyfig.remoteSet(Collections.singletonMap(field1, 1)).isEmpty());
+        assertEquals(1, batches.size());
+        // a bad value fails the whole group before anything is set
+        values.clear();
+        values.put(field1, "bogus");
+        values.put(field2, "c");
+        try {
+            anyfig.remoteSet(values);
+            fail();
+        } catch (ConfigurationException expected) {
+            assertEquals(1, failures.size());
+            assertEquals(field1, failures.get(0).field);
+            assertEquals(Mechanisms.REMOTE, failures.get(0).mechanism);
+            assertEquals(1, TestRemoteSet.field1);
+            assertEquals("b", TestRemoteSet.field2);
+            assertEquals(3, deltas.size());
+            assertEquals(3, anyfig.getHistory().size());
+            assertEquals(1, batches.size());
+        }
+    }
+
+    @Test
+    public void testRemoteSetBatchCallbackFails() throws Exception {
+        anyfig.register(callback, failureCallback, TestRemoteSetBatchCallbackFails.class);
+        anyfig.registerBatch(batch -> {
+            throw new RuntimeException("batch");
+        });
+        Map<Field,Object> values = new LinkedHashMap<>();
+        values.put(TestRemoteSetBatchCallbackFails.class.getDeclaredField("field1"), 1);
+        values.put(TestRemoteSetBatchCallbackFails.class.getDeclaredField("field2"), 2);
+        // the group was committed, so it doesn't fail; the failure is reported for each delta instead
+        List<Delta> set = anyfig.remoteSet(values);
+        assertEquals(2, set.size());
+        assertEquals(1, TestRemoteSetBatchCallbackFails.field1);
+        assertEquals(2, TestRemoteSetBatchCallbackFails.field2);
+        assertEquals(set, anyfig.getHistory());
+        assertEquals(set, deltas);
+        assertEquals(2, failures.size());
+        assertEquals("batch", failures.get(0).exception.getMessage());
+    }
+    private static class TestRemoteSetBatchCallbackFails {
+        private static int field1;
+        private static int field2;
+    }
+
+    private static class TestRemoteSet {
+        private static int field1;
+        private static String field2;
+        @Configurable(separator = ",")
+        private static List<String> field3;
+    }
+
+    @Test
+    public void testRollback() throws Exception {
+        AtomicLong now = new AtomicLong(1000);
+        try {
+            Payload.clock = now::getAndIncrement;
+            anyfig.register(callback, failureCallback, TestRollback.class);
+            List<List<Delta>> batches = new ArrayList<>();
+            anyfig.registerBatch(batches::add);
+            Field field1 = TestRollback.class.getDeclaredField("field1");
+            Field field2 = TestRollback.class.getDeclaredField("field2");
+            Field field3 = TestRollback.class.getDeclaredField("field3");
+            Map<Field,Object> values = new LinkedHashMap<>();
+            values.put(field1, 1);
+            values.put(field2, "a");
+            values.put(field3, 1);
+            anyfig.remoteSet(values);
+            long before = now.get() - 1;
+            anyfig.remoteSet(Collections.singletonMap(field2, "b"));
+            anyfig.remoteSet(Collections.singletonMap(field1, 2));
+            anyfig.remoteSet(Collections.singletonMap(field3, 2));
+            anyfig.remoteSet(Collections.singletonMap(field3, 1)); // back as it was
+            anyfig.remoteSet(Collections.singletonMap(field1, 3));
+            deltas.clear();
+            batches.clear();
+            // only the fields that differ, in the order they first changed, as one batch
+            List<Delta> rolledBack = anyfig.rollbackTo(before);
+            assertEquals(1, TestRollback.field1);
+            assertEquals("a", TestRollback.field2);
+            assertEquals(1, TestRollback.field3);
+            assertEquals(2, rolledBack.size());
+            assertEquals(field2, rolledBack.get(0).field);
+            assertEquals("b", rolledBack.get(0).oldVal);
+            assertEquals(field1, rolledBack.get(1).field);
+            assertEquals(3, rolledBack.get(1).oldVal);
+            assertTrue(rolledBack.stream().allMatch(delta -> delta.mechanism == Mechanisms.ROLLBACK));
+            assertEquals(rolledBack, deltas);
+            assertEquals(Collections.singletonList(rolledBack), batches);
+            // a rollback is itself in the history, so it can be undone
+            assertEquals(1, anyfig.rollback(1).size());
+            assertEquals(3, TestRollback.field1);
+            assertEquals("a", TestRollback.field2);
+            // and only the matching fields are restored
+            assertEquals(1, anyfig.rollbackTo(before, field1::equals).size());
+            assertEquals(1, TestRollback.field1);
+            // likewise by count: the latest delta to a matching field, even though field1 changed since
+            assertEquals(1, anyfig.rollback(1, field2::equals).size());
+            assertEquals("b", TestRollback.field2);
+            assertEquals(1, TestRollback.field1);
+            try {
+                anyfig.rollback(1000);
+                fail();
+            } catch (ConfigurationException expected) {
+                // not that much history
+            }
+        } finally {
+            Payload.resetClock();
+        }
+    }
+    private static class TestRollback {
+        private static int field1;
+        private static String field2;
+        private static int field3;
+    }
+
+    @Test
+    public void testRollbackToNull() throws Exception {
+        AtomicLong now = new AtomicLong(1000);
+        try {
+            Payload.clock = now::getAndIncrement;
+            Field field = TestRollbackToNull.class.getDeclaredField("field");
+            long before = now.get() - 1;
+            anyfig.remoteSet(field, "a");
+            anyfig.remoteSet(field, "b");
+            List<Delta> rolledBack = anyfig.rollbackTo(before);
+            assertEquals(1, rolledBack.size());
+            assertEquals(null, rolledBack.get(0).newVal);
+            assertEquals(null, TestRollbackToNull.field);
+        } finally {
+            Payload.resetClock();
+        }
+    }
+    private static class TestRollbackToNull {
+        @Configurable
+        private static String field = null;
+    }
+
+    @Test
+    public void testAsyncCallbacks() throws Exception {
+        anyfig.enableAsyncCallbacks(new Dispatcher(2, 4, Dispatcher.Policy.BLOCK));
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> threads = Collections.synchronizedList(new ArrayList<>());
+        Map<Field,List<Object>> values = new ConcurrentHashMap<>();
+        anyfig.register((Consumer<Delta>) delta -> {
+            try {
+                release.await();
+            } catch (InterruptedException exception) {
+                throw new RuntimeException(exception);
+            }
+            threads.add(Thread.currentThread().getName());
+            values.computeIfAbsent(delta.field, field -> Collections.synchronizedList(new ArrayList<>())).add(delta.newVal);
+        }, TestAsyncCallbacks.class);
+        Field field1 = TestAsyncCallbacks.class.getDeclaredField("field1");
+        Field field2 = TestAsyncCallbacks.class.getDeclaredField("field2");
+        // the slow callbacks don't hold up configuration
+        for (int i = 1; i <= 3; i++) {
+            anyfig.remoteSet(field1, i);
+            anyfig.remoteSet(field2, i);
+        }
+        assertEquals(3, TestAsyncCallbacks.field1);
+        assertEquals(6, anyfig.getHistory().size());
+        assertTrue(threads.isEmpty());
+        Dispatcher.Stats stats = anyfig.getCallbackStats().get();
+        assertEquals(6, stats.dispatched);
+        assertEquals(0, stats.completed);
+        release.countDown();
+        anyfig.flushCallbacks();
+        // in order for each field, and never on this thread
+        assertEquals(Arrays.asList(1, 2, 3), values.get(field1));
+        assertEquals(Arrays.asList(1, 2, 3), values.get(field2));
+        assertFalse(threads.contains(Thread.currentThread().getName()));
+        stats = anyfig.getCallbackStats().get();
+        assertEquals(0, stats.queueDepth);
+        assertEquals(6, stats.completed);
+        assertTrue(stats.maxLatency.compareTo(stats.getMeanLatency()) >= 0);
+        anyfig.disableAsyncCallbacks();
+        assertFalse(anyfig.getCallbackStats().isPresent());
+    }
+    private static class TestAsyncCallbacks {
+        private static int field1;
+        private static int field2;
+    }
+
+    @Test
+    public void testAsyncCallbackBackpressure() throws Exception {
+        Field field = TestAsyncCallbackBackpressure.class.getDeclaredField("field");
+        for (Dispatcher.Policy policy : Dispatcher.Policy.values()) {
+            anyfig = new Anyfig();
+            Dispatcher dispatcher = new Dispatcher(1, 1, policy);
+            anyfig.enableAsyncCallbacks(dispatcher);
+            CountDownLatch started = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            List<String> threads = Collections.synchronizedList(new ArrayList<>());
+            anyfig.register((Consumer<Delta>) delta -> {
+                threads.add(Thread.currentThread().getName());
+                if (delta.newVal.equals(-1)) {
+                    started.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException exception) {
+                        throw new RuntimeException(exception);
+                    }
+                }
+            }, field);
+            anyfig.remoteSet(field, -1);
+            started.await();
+            anyfig.remoteSet(field, -2); // queued
+            // the queue is full
+            if (policy == Dispatcher.Policy.BLOCK) {
+                Thread thread = new Thread(() -> {
+                    try {
+                        anyfig.remoteSet(field, -3);
+                    } catch (Exception exception) {
+                        throw new RuntimeException(exception);
+                    }
+                });
+                thread.start();
+                thread.join(100);
+                assertTrue(thread.isAlive()); // waiting for room
+                release.countDown();
+                thread.join();
+                anyfig.flushCallbacks();
+                assertEquals(3, threads.size());
+                assertEquals(1, new HashSet<>(threads).size()); // in order, on the field's thread
+            } else if (policy == Dispatcher.Policy.DROP) {
+                anyfig.remoteSet(field, -3);
+                release.countDown();
+                anyfig.flushCallbacks();
+                assertEquals(1, anyfig.getCallbackStats().get().rejected);
+                assertEquals(2, threads.size());
+            } else {
+                // the field was set, so the rejection can't fail the set
+                List<Throwable> uncaught = new ArrayList<>();
+                Thread.UncaughtExceptionHandler handler = Thread.currentThread().getUncaughtExceptionHandler();
+                Thread.currentThread().setUncaughtExceptionHandler((thread, exception) -> uncaught.add(exception));
+                try {
+                    anyfig.remoteSet(field, -3);
+                } finally {
+                    Thread.currentThread().setUncaughtExceptionHandler(handler);
+                }
+                assertEquals(1, uncaught.size());
+                assertTrue(uncaught.get(0) instanceof ConfigurationException);
+                assertEquals(1, anyfig.getCallbackStats().get().rejected);
+                release.countDown();
+            }
+            assertEquals(-3, TestAsyncCallbackBackpressure.field);
+            anyfig.close();
+            dispatcher.flush(); // closed: returns rather than waiting for the stopped thread
+        }
+    }
+    private static class TestAsyncCallbackBackpressure {
+        private static int field;
+    }
+
+    @Test
+    public void testCoalescedCallbacks() throws Exception {
+        anyfig = new Anyfig(new History(100000, null));
+        List<Delta> coalesced = Collections.synchronizedList(new ArrayList<>());
+        anyfig.register(Duration.ofMillis(20), coalesced::add, TestCoalescedCallbacks.class);
+        anyfig.register(callback, TestCoalescedCallbacks.class.getDeclaredField("field4"));
+        List<Field> fields = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            fields.add(TestCoalescedCallbacks.class.getDeclaredField("field" + i));
+        }
+        // a storm of changes: each thread sets its own field, 5000 times
+        ExecutorService executor = Executors.newFixedThreadPool(fields.size());
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (Field field : fields) {
+                futures.add(executor.submit(() -> {
+                    for (int value = 1; value <= 5000; value++) {
+                        anyfig.remoteSet(field, value);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        anyfig.remoteSet(TestCoalescedCallbacks.class.getDeclaredField("field4"), 1);
+        anyfig.flushCallbacks();
+        // every change is in the history, but the callbacks got far fewer deltas, which still add up
+        assertEquals(20001, anyfig.getHistory().size());
+        assertEquals(20000, coalesced.size() + anyfig.getCoalescedCallbacks());
+        assertTrue(coalesced.size() < 2000);
+        for (Field field : fields) {
+            Object value = 0;
+            for (Delta delta : coalesced) {
+                if (delta.field.equals(field)) {
+                    assertEquals(value, delta.oldVal);
+                    value = delta.newVal;
+                }
+            }
+            assertEquals(5000, value);
+        }
+        // callbacks registered without a window are unaffected
+        assertEquals(1, deltas.size());
+    }
+    private static class TestCoalescedCallbacks {
+        private static int field0;
+        private static int field1;
+        private static int field2;
+        private static int field3;
+        private static int field4;
+    }
+
+    @Test
+    public void testSharedSourceSnapshot() {
+        SourceSnapshot sources = SourceSnapshot.of(new String[] { "--field1=1", "--field1=2", "--custom-arg=3", "--bogus" });
+        assertEquals(2, sources.arguments.size());
+        TestArgs test1 = new TestArgs();
+        TestArgs test2 = new TestArgs();
+        anyfig.configure(sources, test1, test2);
+        assertEquals(1, test1.field1);
+        assertEquals(3, test1.field3);
+        assertEquals(1, test2.field1);
+        assertEquals(3, test2.field3);
+    }
+
+    @Test
+    public void testConfigureAll() throws Exception {
+        List<TestArgs> tests = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            tests.add(new TestArgs());
+        }
+        anyfig.register(callback, failureCallback, tests.toArray());
+        String[] args = { "--field1=1", "--custom-arg=3" };
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            anyfig.configureAll(args, tests, executor);
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(2000, deltas.size());
+        assertTrue(failures.isEmpty());
+        assertEquals(2000, anyfig.getHistory().size());
+        for (int i = 0; i < tests.size(); i++) {
+            // in input order, one object at a time
+            assertEquals(Optional.of(tests.get(i)), deltas.get(2 * i).object);
+            assertEquals(Optional.of(tests.get(i)), deltas.get(2 * i + 1).object);
+            assertEquals(deltas.get(2 * i), anyfig.getHistory().get(2 * i));
+            assertEquals(1, tests.get(i).field1);
+            assertEquals(3, tests.get(i).field3);
+        }
+    }
+
+    @Test
+    public void testConfigureAllUnordered() {
+        List<Object> tests = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            tests.add(new TestArgs());
+            tests.add(new TestConfigureAllUnordered());
+        }
+        anyfig.register(callback, failureCallback, TestArgs.class, TestConfigureAllUnordered.class);
+        SourceSnapshot sources = SourceSnapshot.of(new String[] { "--field1=1", "--field2=2" });
+        anyfig.configureAll(sources, tests, ForkJoinPool.commonPool(), false);
+        // static fields are configured just once, however many objects share them
+        assertEquals(2002, deltas.size());
+        assertTrue(failures.isEmpty());
+        assertEquals(1, TestConfigureAllUnordered.field1);
+        assertEquals(2, TestConfigureAllUnordered.field2);
+        assertEquals(1000, deltas.stream().map(delta -> delta.object).filter(Optional::isPresent).distinct().count());
+    }
+    private static class TestConfigureAllUnordered {
+        private static int field1;
+        private static int field2;
+    }
+
     @Test
     public void testStaticProps() throws Exception {
         PropertyMechanism.withProperties(
@@ -551,6 +1086,252 @@ public class AnyfigTest {
         private int field2;
     }
 
+    @Test
+    public void testFiles() throws Exception {
+        Path dir = Files.createTempDirectory("anyfig");
+        Path properties = dir.resolve("test.properties");
+        Path json = dir.resolve("test.json");
+        Files.write(properties, Arrays.asList(
+            "# comment",
+            "field1 = 1",
+            "io.osowa.anyfig.tests.AnyfigTest$TestFiles.field2: 2",
+            "custom\\ key=multi \\",
+            "    line \\u0021",
+            "field5=5"));
+        Files.write(json, Arrays.asList(
+            "{",
+            "  \"field1\": 10,",
+            "  \"io.osowa.anyfig.tests.AnyfigTest$TestFiles.field2\": 20,",
+            "  \"field4\": [1, 2, {\"x\": \"]\"}],",
+            "  \"field5\": 50,",
+            "  \"field6\": \"caf\u00e9 \\\"quoted\\\"\",",
+            "  \"field7\": null",
+            "}"), StandardCharsets.UTF_8);
+        PropertyMechanism.withProperties(
+            () -> {
+                TestFiles test = new TestFiles();
+                anyfig.configure(callback, failureCallback, test);
+                assertTrue(failures.isEmpty());
+                assertEquals(1, test.field1); // earlier files take precedence
+                assertEquals(2, test.field2);
+                assertEquals("multi line !", test.field3);
+                assertEquals("[1, 2, {\"x\": \"]\"}]", test.field4);
+                assertEquals(5, test.field5);
+                assertEquals("caf\u00e9 \"quoted\"", test.field6);
+                assertEquals("unchanged", test.field7);
+                assertTrue(deltas.stream().allMatch(delta -> delta.mechanism == Mechanisms.FILE));
+                // an edited file is re-indexed
+                Files.write(properties, Arrays.asList("field1=100", "field5=500"));
+                Files.setLastModifiedTime(properties, FileTime.fromMillis(System.currentTimeMillis() + 60000));
+                anyfig.configure(test);
+                assertEquals(100, test.field1);
+                assertEquals(20, test.field2); // now from the flat JSON file's fully-qualified key
+                assertEquals(500, test.field5);
+            },
+            "anyfig.files", properties + File.pathSeparator + json);
+    }
+
+    @Test
+    public void testFileRewrittenInPlace() throws Exception {
+        Path dir = Files.createTempDirectory("anyfig");
+        Path properties = dir.resolve("test.properties");
+        Files.write(properties, Arrays.asList("field1=1", "field5=5"));
+        PropertyMechanism.withProperties(
+            () -> {
+                SourceSnapshot sources = SourceSnapshot.of(new String[0]);
+                // truncated in place, after the snapshot indexed it
+                try (FileChannel channel = FileChannel.open(properties, StandardOpenOption.WRITE)) {
+                    channel.truncate(0);
+                }
+                TestFiles test = new TestFiles();
+                anyfig.configure(sources, test);
+                assertEquals(1, test.field1);
+                assertEquals(5, test.field5);
+            },
+            "anyfig.files", properties.toString());
+    }
+
+    @Test
+    public void testReloadFiles() throws Exception {
+        Path dir = Files.createTempDirectory("anyfig");
+        Path file = dir.resolve("test.properties");
+        writeReloadFile(file, 1, 2, 5);
+        PropertyMechanism.withProperties(
+            () -> {
+                List<TestReloadFiles> tests = new ArrayList<>();
+                for (int i = 0; i < 10; i++) {
+                    tests.add(new TestReloadFiles());
+                }
+                anyfig.register(callback, failureCallback, tests.toArray());
+                anyfig.configure(tests.toArray());
+                assertEquals(20, deltas.size());
+                // a burst of writes to one key (and to a key that no field uses) re-resolves just that field
+                anyfig.enableFileWatching(Duration.ofMillis(500));
+                for (int value = 3; value <= 10; value++) {
+                    writeReloadFile(file, value, 2, value);
+                }
+                long deadline = System.currentTimeMillis() + 10000;
+                while (anyfig.getHistory().size() < 30 && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(10);
+                }
+                anyfig.disableFileWatching();
+                assertEquals(30, anyfig.getHistory().size());
+                assertTrue(failures.isEmpty());
+                for (Delta delta : deltas.subList(20, 30)) {
+                    assertEquals("field1", delta.field.getName());
+                    assertEquals(Mechanisms.FILE, delta.mechanism);
+                    assertEquals(10, delta.newVal);
+                }
+                assertEquals(0, anyfig.reloadFiles());
+                // and on demand
+                writeReloadFile(file, 10, 20, 10);
+                assertEquals(10, anyfig.reloadFiles());
+                assertEquals(40, deltas.size());
+                for (TestReloadFiles test : tests) {
+                    assertEquals(10, test.field1);
+                    assertEquals(20, test.field2);
+                }
+            },
+            "anyfig.files", file.toString());
+    }
+    private static class TestReloadFiles {
+        private int field1;
+        private int field2;
+    }
+
+    @Test
+    public void testWatchNewFiles() throws Exception {
+        Path dir = Files.createTempDirectory("anyfig");
+        Path file = dir.resolve("test.properties");
+        writeReloadFile(file, 1, 2, 5);
+        // watching starts before the file is first read
+        anyfig.enableFileWatching(Duration.ofMillis(100));
+        PropertyMechanism.withProperties(
+            () -> {
+                anyfig.configure(callback, failureCallback, TestWatchNewFiles.class);
+                assertEquals(1, TestWatchNewFiles.field1);
+                writeReloadFile(file, 3, 2, 5);
+                long deadline = System.currentTimeMillis() + 10000;
+                while (TestWatchNewFiles.field1 != 3 && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(10);
+                }
+                anyfig.disableFileWatching();
+                assertEquals(3, TestWatchNewFiles.field1);
+                assertTrue(failures.isEmpty());
+            },
+            "anyfig.files", file.toString());
+    }
+    private static class TestWatchNewFiles {
+        private static int field1;
+        private static int field2;
+    }
+    // a 100k-key file, replaced atomically (as an editor or deployment tool would)
+    private static void writeReloadFile(Path file, int field1, int field2, int key5) throws Exception {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            text.append("key").append(i).append('=').append(i == 5 ? key5 : i).append('\n');
+        }
+        text.append("field1=").append(field1).append('\n');
+        text.append("field2=").append(field2).append('\n');
+        Path temp = Files.createTempFile(file.getParent(), "test", ".tmp");
+        Files.write(temp, text.toString().getBytes(StandardCharsets.ISO_8859_1));
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Test
+    public void testDirectories() throws Exception {
+        // a kubernetes-style bundle: key -> ..data/key, ..data -> ..v1
+        Path bundle = Files.createTempDirectory("anyfig");
+        writeVersion(bundle, "..v1", "1", "2");
+        Files.createSymbolicLink(bundle.resolve("..data"), Paths.get("..v1"));
+        for (String key : new String[] { "field1", "field2" }) {
+            Files.createSymbolicLink(bundle.resolve(key), Paths.get("..data", key));
+        }
+        // and a plain directory
+        Path plain = Files.createTempDirectory("anyfig");
+        Files.write(plain.resolve("field2"), "20\n".getBytes(StandardCharsets.UTF_8));
+        Files.write(plain.resolve("custom-key"), "3".getBytes(StandardCharsets.UTF_8));
+        PropertyMechanism.withProperties(
+            () -> {
+                TestDirectories test = new TestDirectories();
+                anyfig.configure(callback, failureCallback, test);
+                assertTrue(failures.isEmpty());
+                assertEquals(1, test.field1);
+                assertEquals(2, test.field2); // earlier directories take precedence
+                assertEquals(3, test.field3);
+                assertTrue(deltas.stream().allMatch(delta -> delta.mechanism == Mechanisms.DIRECTORY));
+                // unchanged files are not read again
+                long reads = DirectoryMechanism.getReads();
+                anyfig.configure(test);
+                assertEquals(reads, DirectoryMechanism.getReads());
+                // a new version is swapped in atomically, and re-read as a whole
+                writeVersion(bundle, "..v2", "10", "2");
+                Files.createSymbolicLink(bundle.resolve("..data.tmp"), Paths.get("..v2"));
+                Files.move(bundle.resolve("..data.tmp"), bundle.resolve("..data"), StandardCopyOption.ATOMIC_MOVE);
+                assertEquals(1, anyfig.reloadFiles());
+                assertEquals(10, test.field1);
+                assertEquals(reads + 2, DirectoryMechanism.getReads());
+                // and plain files are re-read when they change
+                Files.write(plain.resolve("custom-key"), "30".getBytes(StandardCharsets.UTF_8));
+                anyfig.configure(test);
+                assertEquals(30, test.field3);
+                assertEquals(5, deltas.size());
+            },
+            "anyfig.directories", bundle + File.pathSeparator + plain);
+    }
+    private static class TestDirectories {
+        private int field1;
+        private int field2;
+        @Configurable(file = "custom-key")
+        private int field3;
+    }
+    private static void writeVersion(Path bundle, String version, String field1, String field2) throws Exception {
+        Files.createDirectory(bundle.resolve(version));
+        Files.write(bundle.resolve(version).resolve("field1"), field1.getBytes(StandardCharsets.UTF_8));
+        Files.write(bundle.resolve(version).resolve("field2"), field2.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testWatchDirectories() throws Exception {
+        Path bundle = Files.createTempDirectory("anyfig");
+        writeVersion(bundle, "..v1", "1", "2");
+        Files.createSymbolicLink(bundle.resolve("..data"), Paths.get("..v1"));
+        PropertyMechanism.withProperties(
+            () -> {
+                anyfig.configure(callback, failureCallback, TestWatchDirectories.class);
+                assertEquals(1, TestWatchDirectories.field1);
+                anyfig.enableFileWatching(Duration.ofMillis(100));
+                // kubernetes swaps in a new version: nothing happens to the files we read, only to `..data`
+                writeVersion(bundle, "..v2", "10", "2");
+                Files.createSymbolicLink(bundle.resolve("..data.tmp"), Paths.get("..v2"));
+                Files.move(bundle.resolve("..data.tmp"), bundle.resolve("..data"), StandardCopyOption.ATOMIC_MOVE);
+                long deadline = System.currentTimeMillis() + 10000;
+                while (TestWatchDirectories.field1 != 10 && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(10);
+                }
+                anyfig.disableFileWatching();
+                assertEquals(10, TestWatchDirectories.field1);
+                assertEquals(2, TestWatchDirectories.field2);
+                assertTrue(failures.isEmpty());
+            },
+            "anyfig.directories", bundle.toString());
+    }
+    private static class TestWatchDirectories {
+        private static int field1;
+        private static int field2;
+    }
+
+    private static class TestFiles {
+        private int field1;
+        private int field2;
+        @Configurable(file = "custom key")
+        private String field3;
+        private String field4;
+        private int field5;
+        private String field6;
+        private String field7 = "unchanged";
+    }
+
     @Test
     public void testBadCallback() {
         TestBadCallback test = new TestBadCallback();
@@ -719,6 +1500,66 @@ public class AnyfigTest {
         private static Foo field;
     }
 
+    @Test
+    public void testRegisterConverter() throws Exception {
+        anyfig.registerConverter(Duration.class, value -> Duration.ofMillis(Long.parseLong(value)));
+        anyfig.configure(callback, failureCallback, new String[] { "--timeout=1500" }, TestRegisterConverter.class);
+        assertEquals(1, deltas.size());
+        assertTrue(failures.isEmpty());
+        assertEquals(Duration.ofMillis(1500), TestRegisterConverter.timeout);
+    }
+    private static class TestRegisterConverter {
+        private static Duration timeout;
+    }
+
+    @Test
+    public void testCanConfigGenericField() {
+        RemoteAPI.Config config = new RemoteAPI.Config();
+        String[] args = { "--anyfigRemoteAPIPeers=[{host:a,port:1},{host:b}]" };
+        anyfig.configure(callback, failureCallback, args, config);
+        assertTrue(failures.isEmpty());
+        assertEquals(2, config.peers.size());
+        assertEquals("a:1", config.peers.get(0).toString());
+        assertEquals("b:" + RemoteAPI.Config.DEFAULT_PORT, config.peers.get(1).toString());
+    }
+
+    @Test
+    public void testCanConfigDelimitedField() {
+        String[] args = { "--ports=8080,8081", "--hosts=a; b" };
+        anyfig.configure(callback, failureCallback, args, TestCanConfigDelimitedField.class);
+        assertEquals(2, deltas.size());
+        assertTrue(failures.isEmpty());
+        assertEquals(8081, TestCanConfigDelimitedField.ports[1]);
+        assertEquals(Arrays.asList("a", "b"), TestCanConfigDelimitedField.hosts);
+    }
+    private static class TestCanConfigDelimitedField {
+        private static int[] ports;
+        @Configurable(separator = ";")
+        private static List<String> hosts;
+    }
+
+    @Test
+    public void testConstantCaches() {
+        anyfig.configure(callback, failureCallback, TestConstantCaches.class);
+        assertEquals(1, deltas.size());
+        assertEquals(1, failures.size()); // the missing custom constant
+        long lookups = ConstMechanism.getLookups();
+        long found = ConstMechanism.getFound();
+        long reflected = ConstMechanism.getReflected();
+        anyfig.configure(TestConstantCaches.class);
+        assertEquals(2, failures.size());
+        assertEquals(lookups + 3, ConstMechanism.getLookups());
+        assertEquals(found + 1, ConstMechanism.getFound());
+        assertEquals(reflected, ConstMechanism.getReflected()); // misses included, everything was cached
+    }
+    private static class TestConstantCaches {
+        private static final int DEFAULT_FOUND = 1;
+        private static int found;
+        private static int missing;
+        @Configurable(constant = "no.such.Class.CONSTANT")
+        private static int custom;
+    }
+
     @Test
     public void testRegisterPackageCallbacks() {
         anyfig.register(callback, TestRegisterPackageCallbacks.class.getPackage());
@@ -792,6 +1633,30 @@ public class AnyfigTest {
         private int field2 = 1;
     }
 
+    @Test
+    public void testIgnoredAncestorPackage() {
+        anyfig.configure(callback, failureCallback, TestIgnoredAncestorPackage.class);
+        assertTrue(deltas.isEmpty());
+        assertTrue(failures.isEmpty());
+        assertEquals(1, TestIgnoredAncestorPackage.field);
+    }
+
+    @Test
+    public void testMemoizedPackageCallbacks() {
+        List<Delta> ancestor = new ArrayList<>();
+        Consumer<Delta> ancestorCallback = ancestor::add;
+        anyfig.register(ancestorCallback, failureCallback, getClass().getPackage());
+        TestSubpackageCallbacks.field = 1;
+        anyfig.configure(TestSubpackageCallbacks.class);
+        assertEquals(1, ancestor.size());
+        // registering invalidates the memoized callbacks, and the nearest package wins
+        anyfig.register(callback, failureCallback, TestSubpackageCallbacks.class.getPackage());
+        TestSubpackageCallbacks.field = 1;
+        anyfig.configure(TestSubpackageCallbacks.class);
+        assertEquals(1, ancestor.size());
+        assertEquals(1, deltas.size());
+    }
+
     @Test
     public void testRegisterGlobalCallbacks() {
         anyfig.register(callback);
@@ -805,6 +1670,73 @@ public class AnyfigTest {
         static int field = 1;
     }
 
+    @Test
+    public void testRegisterWhileLookingUp() throws Exception {
+        anyfig.configure(TestRegisterWhileLookingUp1.class);
+        Set<String> keys = anyfig.remoteEnumerate();
+        assertEquals(1, keys.size());
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                futures.add(executor.submit(() -> {
+                    for (int j = 0; j < 1000; j++) {
+                        for (String key : anyfig.remoteEnumerate()) {
+                            assertTrue(anyfig.getRemoteKey(key).isPresent());
+                        }
+                    }
+                }));
+            }
+            for (int i = 0; i < 1000; i++) {
+                anyfig.register(callback, new TestRegisterWhileLookingUp1());
+            }
+            anyfig.configure(TestRegisterWhileLookingUp2.class);
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        // enumerations are snapshots, unaffected by later registrations
+        assertEquals(1, keys.size());
+        assertEquals(2, anyfig.remoteEnumerate().size());
+    }
+    private static class TestRegisterWhileLookingUp1 {
+        static int field;
+    }
+    private static class TestRegisterWhileLookingUp2 {
+        static int field;
+    }
+
+    @Test
+    public void testReconfigureKeepsRegistrations() {
+        anyfig.register(callback, failureCallback, TestReconfigureKeepsRegistrations.class);
+        anyfig.configure(TestReconfigureKeepsRegistrations.class);
+        long version = anyfig.getRegistrationVersion();
+        int memoized = anyfig.getMemoizedCallbacks();
+        assertEquals(3, memoized);
+        // the remote keys are registered again, but they haven't changed
+        anyfig.configure(TestReconfigureKeepsRegistrations.class);
+        assertEquals(version, anyfig.getRegistrationVersion());
+        assertEquals(memoized, anyfig.getMemoizedCallbacks());
+        // nor does a new remote key discard the memoized callbacks
+        anyfig.configure(TestReconfigureKeepsRegistrationsToo.class);
+        assertEquals(version + 1, anyfig.getRegistrationVersion());
+        assertEquals(memoized + 1, anyfig.getMemoizedCallbacks());
+    }
+    private static class TestReconfigureKeepsRegistrations {
+        @Configurable(literal = true, value = "1")
+        static int field1;
+        @Configurable(literal = true, value = "2")
+        static int field2;
+        @Configurable(literal = true, value = "3")
+        static int field3;
+    }
+    private static class TestReconfigureKeepsRegistrationsToo {
+        @Configurable(literal = true, value = "4")
+        static int field;
+    }
+
     @Test
     public void testRegisterGlobalBiConsumerCallbacks() {
         anyfig.register(
@@ -961,4 +1893,209 @@ public class AnyfigTest {
         static int field;
     }
 
+    @Test
+    public void testBoundedHistory() throws Exception {
+        History history = new History(100, Duration.ofMinutes(1));
+        anyfig = new Anyfig(history);
+        Field field = TestBoundedHistory.class.getDeclaredField("field");
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                int thread = i;
+                futures.add(executor.submit(() -> {
+                    for (int j = 0; j < 250; j++) {
+                        history.record(new Delta(Optional.empty(), null, field, Mechanisms.REMOTE, thread, j));
+                        assertTrue(anyfig.getHistory().size() <= 100);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        // only the most recent are retained, but in order within each thread
+        List<Delta> deltas = anyfig.getHistory();
+        assertEquals(100, deltas.size());
+        assertEquals(900, anyfig.getDroppedHistory());
+        for (int i = 1; i < deltas.size(); i++) {
+            if (deltas.get(i).oldVal.equals(deltas.get(i - 1).oldVal)) {
+                assertTrue((int) deltas.get(i).newVal > (int) deltas.get(i - 1).newVal);
+            }
+        }
+        // and nothing older than the maximum age
+        try {
+            long now = System.currentTimeMillis();
+            Payload.clock = () -> now + Duration.ofMinutes(2).toMillis();
+            assertTrue(anyfig.getHistory().isEmpty());
+        } finally {
+            Payload.resetClock();
+        }
+    }
+    private static class TestBoundedHistory {
+        static int field;
+    }
+
+    @Test
+    public void testHistoryQueries() throws Exception {
+        History history = new History(10, null);
+        anyfig = new Anyfig(history);
+        Field a = TestHistoryQueries.class.getDeclaredField("a");
+        Field b = TestHistoryQueries.class.getDeclaredField("b");
+        // timestamps 100, 110, ... 190, alternating fields, but recorded out of timestamp order
+        for (int i : new int[] { 9, 0, 8, 1, 7, 2, 6, 3, 5, 4 }) {
+            Delta delta = new Delta(Optional.empty(), null, i % 2 == 0 ? a : b, Mechanisms.REMOTE, null, i);
+            delta.timestamp = 100 + 10 * i;
+            history.record(delta);
+        }
+        assertEquals(Arrays.asList(2, 4, 6), values(anyfig.getHistory(a, 120, 180)));
+        assertEquals(Arrays.asList(1, 3, 5, 7, 9), values(anyfig.getHistory(b, 0, Long.MAX_VALUE)));
+        assertEquals(Arrays.asList(7, 8, 9), values(anyfig.getChangedSince(170)));
+        assertEquals(8, anyfig.getLatest(a).get().newVal);
+        // paging through everything, three at a time
+        List<Delta> paged = new ArrayList<>();
+        History.Page page = anyfig.getHistory(null, 0, Long.MAX_VALUE, null, 3);
+        paged.addAll(page.deltas);
+        while (page.next != null) {
+            page = anyfig.getHistory(null, 0, Long.MAX_VALUE, page.next, 3);
+            assertTrue(page.deltas.size() <= 3);
+            paged.addAll(page.deltas);
+        }
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), values(paged));
+        // overwritten deltas drop out of the indexes too
+        Delta delta = new Delta(Optional.empty(), null, b, Mechanisms.REMOTE, null, 10);
+        delta.timestamp = 50;
+        history.record(delta); // overwrites 9
+        assertEquals(Arrays.asList(10, 1, 3, 5, 7), values(anyfig.getHistory(b, 0, Long.MAX_VALUE)));
+        assertEquals(7, anyfig.getLatest(b).get().newVal);
+        assertFalse(anyfig.getLatest(TestHistoryQueries.class.getDeclaredField("c")).isPresent());
+    }
+    private static class TestHistoryQueries {
+        static int a;
+        static int b;
+        static int c;
+    }
+    private static List<Object> values(List<Delta> deltas) {
+        return deltas.stream().map(delta -> delta.newVal).collect(Collectors.toList());
+    }
+
+    @Test
+    public void testHistoryLog() throws Exception {
+        Path dir = Files.createTempDirectory("anyfig");
+        Field field = TestHistoryLog.class.getDeclaredField("field");
+        Field list = TestHistoryLog.class.getDeclaredField("list");
+        try (Anyfig before = new Anyfig()) {
+            before.enableHistoryLog(dir, 256);
+            before.configure(TestHistoryLog.class);
+            for (int i = 1; i <= 200; i++) {
+                before.remoteSet(field, i);
+            }
+            before.remoteSet(list, Arrays.asList("x", "y"));
+        }
+        // small segments, but compacted
+        try (Stream<Path> segments = Files.list(dir)) {
+            assertTrue(segments.count() <= 6);
+        }
+        // "restart"
+        TestHistoryLog.field = 0;
+        TestHistoryLog.list = null;
+        try (Anyfig after = new Anyfig()) {
+            after.enableHistoryLog(dir, 256);
+            List<Delta> history = after.getHistory();
+            // the constant, then the remote values except the first (which was the constant too)
+            assertEquals(201, history.size());
+            assertEquals(Mechanisms.CONSTANT, history.get(0).mechanism);
+            assertEquals(200, history.get(199).newVal);
+            assertEquals(Arrays.asList("x", "y"), history.get(200).newVal);
+            // the latest remote values are replayed when the fields are configured, before any callbacks fire
+            after.configure(callback, failureCallback, TestHistoryLog.class);
+            assertEquals(200, TestHistoryLog.field);
+            assertEquals(Arrays.asList("x", "y"), TestHistoryLog.list);
+            assertEquals(2, deltas.size());
+            assertTrue(deltas.stream().allMatch(delta -> delta.mechanism == Mechanisms.REMOTE));
+            assertEquals(0, deltas.get(0).oldVal);
+            assertTrue(failures.isEmpty());
+        }
+    }
+    private static class TestHistoryLog {
+        static final int DEFAULT_FIELD = 1;
+        static int field;
+        static List<String> list;
+    }
+
+    @Test
+    public void testHistoryLogRollbackAndRedaction() throws Exception {
+        Path dir = Files.createTempDirectory("anyfig").resolve("history");
+        Field field = TestHistoryLogRollbackAndRedaction.class.getDeclaredField("field");
+        Field secret = TestHistoryLogRollbackAndRedaction.class.getDeclaredField("secret");
+        try (Anyfig before = new Anyfig()) {
+            before.enableHistoryLog(dir);
+            before.configure(TestHistoryLogRollbackAndRedaction.class);
+            before.remoteSet(secret, "hunter2");
+            before.remoteSet(field, 5);
+            before.remoteSet(field, 6);
+            before.rollback(1);
+        }
+        if (dir.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            assertEquals(PosixFilePermissions.fromString("rwx------"), Files.getPosixFilePermissions(dir));
+        }
+        // the secret never reached the disk
+        try (Stream<Path> segments = Files.list(dir)) {
+            for (Path segment : segments.collect(Collectors.toList())) {
+                assertFalse(new String(Files.readAllBytes(segment), StandardCharsets.UTF_8).contains("hunter2"));
+            }
+        }
+        // "restart"
+        TestHistoryLogRollbackAndRedaction.field = 0;
+        TestHistoryLogRollbackAndRedaction.secret = null;
+        try (Anyfig after = new Anyfig()) {
+            after.enableHistoryLog(dir);
+            after.configure(callback, failureCallback, TestHistoryLogRollbackAndRedaction.class);
+            assertEquals(5, TestHistoryLogRollbackAndRedaction.field);
+            assertNull(TestHistoryLogRollbackAndRedaction.secret);
+            // the rolled back value is replayed as such
+            Delta delta = deltas.stream().filter(d -> d.field.equals(field)).findFirst().get();
+            assertEquals(Mechanisms.ROLLBACK, delta.mechanism);
+            assertTrue(failures.isEmpty());
+        }
+    }
+    private static class TestHistoryLogRollbackAndRedaction {
+        static int field;
+        @Configurable(redact = true)
+        static String secret;
+    }
+
+    @Test
+    public void testHistoryLogNull() throws Exception {
+        Path dir = Files.createTempDirectory("anyfig");
+        Field field = TestHistoryLogNull.class.getDeclaredField("field");
+        try (Anyfig before = new Anyfig()) {
+            before.enableHistoryLog(dir);
+            before.configure(TestHistoryLogNull.class);
+            assertEquals("x", TestHistoryLogNull.field);
+            before.remoteSet(field, null);
+            assertNull(TestHistoryLogNull.field);
+        }
+        // "restart"
+        TestHistoryLogNull.field = null;
+        try (Anyfig after = new Anyfig()) {
+            after.enableHistoryLog(dir);
+            List<Delta> history = after.getHistory();
+            assertEquals(2, history.size());
+            assertEquals(Mechanisms.REMOTE, history.get(1).mechanism);
+            assertNull(history.get(1).newVal);
+            // the field was last set to null, so it stays null rather than taking the constant
+            after.configure(callback, failureCallback, TestHistoryLogNull.class);
+            assertNull(TestHistoryLogNull.field);
+            assertTrue(deltas.isEmpty());
+            assertTrue(failures.isEmpty());
+        }
+    }
+    private static class TestHistoryLogNull {
+        static final String DEFAULT_FIELD = "x";
+        static String field;
+    }
+
 }
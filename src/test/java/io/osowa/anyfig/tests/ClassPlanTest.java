@@ -0,0 +1,54 @@
+package io.osowa.anyfig.tests;
+
+import org.junit.Test;
+
+import io.osowa.anyfig.ClassPlan;
+import io.osowa.anyfig.Configurable;
+import io.osowa.anyfig.FieldPlan;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class ClassPlanTest {
+
+    @Test
+    public void testPlansAreCached() {
+        assertSame(ClassPlan.of(TestPlan.class), ClassPlan.of(TestPlan.class));
+    }
+
+    @Test
+    public void testPlanSkipsUnconfigurableFields() {
+        ClassPlan plan = ClassPlan.of(TestPlan.class);
+        assertEquals(2, plan.fields.size());
+        assertEquals(1, plan.staticFields.size());
+        assertEquals("someField", plan.staticFields.get(0).field.getName());
+    }
+
+    @Test
+    public void testPlanPrecomputesCandidates() throws Exception {
+        FieldPlan plan = ClassPlan.of(TestPlan.class.getDeclaredField("someField"));
+        String qualified = TestPlan.class.getName() + ".someField";
+        assertArrayEquals(new String[] { "SOME_FIELD" }, plan.envvars);
+        assertArrayEquals(new String[] { "someField", qualified }, plan.properties);
+        assertArrayEquals(new String[] { "someField", qualified }, plan.arguments);
+        assertEquals(TestPlan.class.getName(), plan.constantClass);
+        assertEquals("DEFAULT_SOME_FIELD", plan.constant);
+        FieldPlan custom = ClassPlan.of(TestPlan.class.getDeclaredField("custom"));
+        assertArrayEquals(new String[] { "CUSTOM" }, custom.envvars);
+        assertArrayEquals(new String[] { "custom.prop" }, custom.properties);
+        assertArrayEquals(new String[] { "custom-arg" }, custom.arguments);
+        assertEquals("some.pkg.Holder", custom.constantClass);
+        assertEquals("CONST", custom.constant);
+    }
+
+    private static class TestPlan {
+        static final int DEFAULT_SOME_FIELD = 1;
+        static int someField;
+        @Configurable(envvar = "CUSTOM", property = "custom.prop", argument = "custom-arg", constant = "some.pkg.Holder.CONST")
+        int custom;
+        @Configurable(ignore = true)
+        int ignored;
+    }
+
+}
@@ -1,15 +1,36 @@
 package io.osowa.anyfig.tests;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
 
 import org.junit.Test;
 
 import io.osowa.anyfig.Coercer;
+import io.osowa.anyfig.ConverterRegistry;
+import io.osowa.anyfig.Immutable;
 
+import java.io.StringReader;
+import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.net.InetAddress;
+import java.net.URI;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class CoercerTest {
 
@@ -207,6 +228,136 @@ public class CoercerTest {
         }
     }
 
+    @Test
+    public void testCoercePrimitives() {
+        // integers are parsed exactly, even beyond 2^53
+        assertEquals(9007199254740993L, COERCER.coerceLong("9007199254740993"));
+        assertEquals(9007199254740993L, (long) COERCER.coerce("9007199254740993", Long.TYPE));
+        assertEquals(-12, COERCER.coerceInt("-12"));
+        assertEquals(12, COERCER.coerceInt("12.34"));
+        assertEquals(1000, COERCER.coerceLong("1e3"));
+        assertEquals(12, COERCER.coerceInt(12.34));
+        assertEquals(0, COERCER.coerceInt(""));
+        assertEquals(0, COERCER.coerceLong(null));
+        assertEquals(12.34, COERCER.coerceDouble("12.34"), EPSILON);
+        assertEquals(0, COERCER.coerceDouble(null), EPSILON);
+        assertTrue(COERCER.coerceBoolean("true"));
+        assertTrue(COERCER.coerceBoolean(true));
+        assertFalse(COERCER.coerceBoolean(null));
+        assertEquals('x', COERCER.coerceChar("xyz"));
+        assertEquals('x', COERCER.coerceChar('x'));
+        assertEquals(0, COERCER.coerceChar(""));
+    }
+
+    @Test
+    public void testBuiltInConverters() throws Exception {
+        assertEquals(Level.FINE, COERCER.coerce("FINE", Level.class));
+        assertEquals(Duration.ofSeconds(90), COERCER.coerce("PT1M30S", Duration.class));
+        assertEquals(Paths.get("/tmp/foo"), COERCER.coerce("/tmp/foo", Path.class));
+        assertEquals(new URI("http://example.com/x"), COERCER.coerce("http://example.com/x", URI.class));
+        assertEquals(InetAddress.getByName("127.0.0.1"), COERCER.coerce("127.0.0.1", InetAddress.class));
+        assertEquals(new BigDecimal("12345678901234567890.5"), COERCER.coerce("12345678901234567890.5", BigDecimal.class));
+        assertEquals(TimeUnit.SECONDS, COERCER.coerce("SECONDS", TimeUnit.class));
+        assertEquals(TimeUnit.SECONDS, COERCER.coerce("\"SECONDS\"", TimeUnit.class)); // JSON, via Gson
+        assertEquals("12", COERCER.coerce(12, String.class));
+    }
+
+    @Test
+    public void testRegisteredConverters() {
+        ConverterRegistry converters = new ConverterRegistry();
+        Coercer coercer = new Coercer(converters);
+        assertEquals(Duration.ofSeconds(90), coercer.coerce("PT1M30S", Duration.class));
+        converters.register(Duration.class, value -> Duration.ofSeconds(Long.parseLong(value)));
+        assertEquals(Duration.ofSeconds(90), coercer.coerce("90", Duration.class));
+        converters.register(Shape.class, Shape::new);
+        assertEquals(new Shape("red"), coercer.coerce("red", Shape.class));
+        // other coercers are unaffected
+        assertEquals(Duration.ofSeconds(90), COERCER.coerce("PT1M30S", Duration.class));
+    }
+
+    @Test
+    public void testCoerceGenericTypes() throws Exception {
+        Type type = TestCoerceGenericTypes.class.getDeclaredField("squares").getGenericType();
+        String json = "[{color:red,size:1},{color:blue,size:2}]";
+        List<Square> expected = Arrays.asList(new Square("red", 1), new Square("blue", 2));
+        assertEquals(expected, COERCER.coerce(json, type));
+        assertEquals(expected, COERCER.coerce(new StringReader(json), type));
+        assertEquals(new Square("red", 1), COERCER.coerce(new StringReader("{color:red,size:1}"), Square.class));
+        assertEquals(12, (int) COERCER.coerce(new StringReader("12"), Integer.TYPE));
+        assertTrue(expected == COERCER.coerce(expected, type));
+        assertEquals(Collections.emptyList(), COERCER.coerce("", type)); // a blank delimited list
+        // as Gson.fromJson, nothing may follow the value
+        for (Object trailing : new Object[] { "{color:red,size:1} garbage", new StringReader("{color:red} {}") }) {
+            try {
+                COERCER.coerce(trailing, Square.class);
+                fail();
+            } catch (JsonParseException ignored) {
+                // expected
+            }
+        }
+    }
+    private static class TestCoerceGenericTypes {
+        private List<Square> squares;
+    }
+
+    @Test
+    public void testCache() {
+        Coercer coercer = new Coercer();
+        coercer.enableCache(100);
+        Duration duration = coercer.coerce("PT1M", Duration.class);
+        assertTrue(duration == coercer.coerce("PT1M", Duration.class));
+        Point point = coercer.coerce("{x:1,y:2}", Point.class);
+        assertTrue(point == coercer.coerce("{x:1,y:2}", Point.class));
+        assertEquals(2, coercer.getCacheStats().hitCount());
+        assertEquals(2, coercer.getCacheStats().missCount());
+        // mutable objects are never shared
+        Square square = coercer.coerce("{color:red,size:1}", Square.class);
+        assertTrue(square != coercer.coerce("{color:red,size:1}", Square.class));
+        assertEquals(2, coercer.getCacheStats().hitCount());
+        assertEquals(2, coercer.getCacheStats().missCount());
+        coercer.invalidateCache();
+        assertTrue(duration != coercer.coerce("PT1M", Duration.class));
+        coercer.disableCache();
+        assertEquals(0, coercer.getCacheStats().requestCount());
+    }
+    @Immutable
+    private static class Point {
+        private final int x;
+        private final int y;
+        Point(int x, int y) {
+            this.x = x;
+            this.y = y;
+        }
+    }
+
+    @Test
+    public void testCoerceDelimited() throws Exception {
+        assertArrayEquals(new int[] { 1, 2, 3 }, COERCER.coerce("1, 2,3", int[].class));
+        assertArrayEquals(new long[] { 9007199254740993L }, COERCER.coerce("9007199254740993", long[].class));
+        assertArrayEquals(new double[] { 1.5, 2 }, COERCER.coerce("1.5,2", double[].class), EPSILON);
+        assertArrayEquals(new String[] { "a", "b" }, COERCER.coerce("a,b", String[].class));
+        assertArrayEquals(new int[0], COERCER.coerce("", int[].class));
+        assertArrayEquals(new int[] { 1, 2 }, COERCER.coerce("[1,2]", int[].class)); // JSON, as before
+        assertArrayEquals(new int[] { 1, 2 }, (int[]) COERCER.coerce("1;2", int[].class, ";"));
+        Type strings = TestCoerceDelimited.class.getDeclaredField("strings").getGenericType();
+        Type units = TestCoerceDelimited.class.getDeclaredField("units").getGenericType();
+        assertEquals(Arrays.asList("a", "b", "c"), COERCER.coerce("a,b,c", strings));
+        assertEquals(Arrays.asList("a", "b"), COERCER.coerce("[\"a\",\"b\"]", strings));
+        assertEquals(EnumSet.of(TimeUnit.SECONDS, TimeUnit.DAYS), COERCER.coerce("SECONDS,DAYS,SECONDS", units));
+        // large inputs give the same results as the JSON path
+        StringBuilder delimited = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            delimited.append(i == 0 ? "" : ",").append(i * 7919L);
+        }
+        long[] parsed = COERCER.coerce(delimited.toString(), long[].class);
+        assertEquals(20000, parsed.length);
+        assertArrayEquals(parsed, COERCER.coerce("[" + delimited + "]", long[].class));
+    }
+    private static class TestCoerceDelimited {
+        private List<String> strings;
+        private Set<TimeUnit> units;
+    }
+
     @Test
     public void testCoerceToSuperclass() {
         {
@@ -6,6 +6,7 @@ import org.apache.http.HttpResponse;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPatch;
+import org.apache.http.client.methods.HttpPost;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
@@ -16,12 +17,18 @@ import io.osowa.anyfig.Anyfig;
 import io.osowa.anyfig.Configurable;
 import io.osowa.anyfig.api.RemoteAPI;
 
+import java.lang.reflect.Field;
 import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 
 import static io.osowa.anyfig.api.RemoteAPI.APPLICATION_JSON;
 import static io.osowa.anyfig.api.RemoteAPI.AUTHORIZATION_HEADER;
 import static io.osowa.anyfig.api.RemoteAPI.CONTENT_TYPE_HEADER;
+import static java.net.HttpURLConnection.HTTP_BAD_REQUEST;
 import static java.net.HttpURLConnection.HTTP_NOT_FOUND;
 import static java.net.HttpURLConnection.HTTP_OK;
 import static java.net.HttpURLConnection.HTTP_UNAUTHORIZED;
@@ -189,6 +196,116 @@ public class RemoteAPITest {
         }
     }
 
+    @Test
+    public void testPatchIsAtomic() throws Exception {
+        RemoteAPI.Config config = makeConfig();
+        try (Anyfig anyfig = new Anyfig()) {
+            anyfig.configure(TestRemoteAPI.class);
+            anyfig.enableRemoteAPI(config);
+            try (CloseableHttpClient httpclient = HttpClients.createDefault()) {
+                String url = "http://localhost:" + config.port + "/anyfig";
+                HttpPatch patch = new HttpPatch(url);
+                patch.setHeader(AUTHORIZATION_HEADER, TOKEN);
+                patch.setHeader(CONTENT_TYPE_HEADER, APPLICATION_JSON);
+                RemoteAPI.PatchRequest request = new RemoteAPI.PatchRequest();
+                request.values = new HashMap<>();
+                request.values.put(TestRemoteAPI.class.getName() + ".field", 3);
+                request.values.put("custom-key", "bogus");
+                int field = TestRemoteAPI.field;
+                int custom = TestRemoteAPI.custom;
+                int history = anyfig.getHistory().size();
+                patch.setEntity(new StringEntity(GSON.toJson(request)));
+                try (CloseableHttpResponse response = httpclient.execute(patch)) {
+                    assertEquals(HTTP_BAD_REQUEST, response.getStatusLine().getStatusCode());
+                    // neither field was set
+                    assertEquals(field, TestRemoteAPI.field);
+                    assertEquals(custom, TestRemoteAPI.custom);
+                    assertEquals(history, anyfig.getHistory().size());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testCanPageHistory() throws Exception {
+        RemoteAPI.Config config = makeConfig();
+        try (Anyfig anyfig = new Anyfig()) {
+            anyfig.configure(TestRemoteAPI.class);
+            anyfig.enableRemoteAPI(config);
+            Field field = TestRemoteAPI.class.getField("field");
+            for (int value = 10; value < 15; value++) {
+                anyfig.remoteSet(field, value);
+            }
+            anyfig.remoteSet(TestRemoteAPI.class.getField("custom"), 20);
+            try (CloseableHttpClient httpclient = HttpClients.createDefault()) {
+                String url = "http://localhost:" + config.port + "/anyfig-history?key=" + TestRemoteAPI.class.getName() + ".field&limit=2";
+                List<Object> values = new ArrayList<>();
+                int pages = 0;
+                String next = null;
+                do {
+                    HttpGet get = new HttpGet(next == null ? url : url + "&after=" + next);
+                    get.setHeader(AUTHORIZATION_HEADER, TOKEN);
+                    try (CloseableHttpResponse response = httpclient.execute(get)) {
+                        assertEquals(HTTP_OK, response.getStatusLine().getStatusCode());
+                        RemoteAPI.HistoryResponse historyResponse = getBody(response, RemoteAPI.HistoryResponse.class);
+                        for (RemoteAPI.HistoryEntry entry : historyResponse.entries) {
+                            assertEquals(TestRemoteAPI.class.getName() + ".field", entry.key);
+                            values.add(entry.newVal);
+                        }
+                        next = historyResponse.next;
+                    }
+                    pages++;
+                } while (next != null);
+                // the remote values are last, in order (after any delta from configuring the field)
+                assertEquals(Arrays.asList(10.0, 11.0, 12.0, 13.0, 14.0), values.subList(values.size() - 5, values.size()));
+                assertEquals((values.size() + 1) / 2, pages);
+                HttpGet get = new HttpGet("http://localhost:" + config.port + "/anyfig-history?key=bogus");
+                get.setHeader(AUTHORIZATION_HEADER, TOKEN);
+                try (CloseableHttpResponse response = httpclient.execute(get)) {
+                    assertEquals(HTTP_NOT_FOUND, response.getStatusLine().getStatusCode());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testCanRollback() throws Exception {
+        RemoteAPI.Config config = makeConfig();
+        try (Anyfig anyfig = new Anyfig()) {
+            anyfig.configure(TestRemoteAPI.class);
+            anyfig.enableRemoteAPI(config);
+            Field field = TestRemoteAPI.class.getField("field");
+            anyfig.remoteSet(field, 30);
+            long before = System.currentTimeMillis();
+            Thread.sleep(2);
+            anyfig.remoteSet(field, 31);
+            anyfig.remoteSet(field, 32);
+            try (CloseableHttpClient httpclient = HttpClients.createDefault()) {
+                String url = "http://localhost:" + config.port + "/anyfig-history";
+                HttpPost post = new HttpPost(url);
+                post.setHeader(AUTHORIZATION_HEADER, TOKEN);
+                post.setHeader(CONTENT_TYPE_HEADER, APPLICATION_JSON);
+                RemoteAPI.RollbackRequest request = new RemoteAPI.RollbackRequest();
+                request.timestamp = before;
+                post.setEntity(new StringEntity(GSON.toJson(request)));
+                try (CloseableHttpResponse response = httpclient.execute(post)) {
+                    assertEquals(HTTP_OK, response.getStatusLine().getStatusCode());
+                    RemoteAPI.RollbackResponse rollbackResponse = getBody(response, RemoteAPI.RollbackResponse.class);
+                    assertEquals(1, rollbackResponse.entries.size());
+                    assertEquals("ROLLBACK", rollbackResponse.entries.get(0).mechanism);
+                    assertEquals(30, TestRemoteAPI.field);
+                }
+                request.count = 1;
+                post.setEntity(new StringEntity(GSON.toJson(request)));
+                try (CloseableHttpResponse response = httpclient.execute(post)) {
+                    // either, not both
+                    assertEquals(HTTP_BAD_REQUEST, response.getStatusLine().getStatusCode());
+                    assertEquals(30, TestRemoteAPI.field);
+                }
+            }
+        }
+    }
+
     // pick an available port; inspired by Xe's UriUtils.findAvailablePort.
     private static int pickPort() {
         try (ServerSocket socket = new ServerSocket(0)) { // 0 means 'pick an available port'
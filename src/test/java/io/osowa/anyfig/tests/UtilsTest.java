@@ -4,14 +4,18 @@ import com.google.gson.Gson;
 
 import org.junit.Test;
 
+import io.osowa.anyfig.ClassPlan;
 import io.osowa.anyfig.Configurable;
+import io.osowa.anyfig.ConfigurationException;
 import io.osowa.anyfig.Delta;
 import io.osowa.anyfig.Failure;
 import io.osowa.anyfig.mechanisms.Mechanisms;
+import io.osowa.anyfig.utils.FieldAccessor;
 import io.osowa.anyfig.utils.Possible;
 import io.osowa.anyfig.utils.Utils;
 
 import java.lang.annotation.Annotation;
+import java.lang.reflect.Field;
 import java.util.Optional;
 import java.util.function.Consumer;
 import java.util.logging.Logger;
@@ -19,6 +23,7 @@ import java.util.logging.Logger;
 import static junit.framework.TestCase.assertTrue;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 
 public class UtilsTest {
 
@@ -105,6 +110,9 @@ public class UtilsTest {
             @Override public String envvar() {
                 return null;
             }
+            @Override public String file() {
+                return null;
+            }
             @Override public String remote() {
                 return null;
             }
@@ -114,6 +122,9 @@ public class UtilsTest {
             @Override public boolean redact() {
                 return true; // this is what we're testing
             }
+            @Override public String separator() {
+                return null;
+            }
         };
         int secret1 = 888888;
         int secret2 = 999999;
@@ -144,6 +155,73 @@ public class UtilsTest {
         assertTrue(warn[0].contains(redacted2redacted));
     }
 
+    @Test
+    public void testFieldAccessors() throws Exception {
+        Field staticField = TestFieldAccessors.class.getDeclaredField("staticField");
+        Field field = TestFieldAccessors.class.getDeclaredField("field");
+        FieldAccessor staticAccessor = ClassPlan.accessor(staticField);
+        FieldAccessor accessor = ClassPlan.accessor(field);
+        assertSame(staticAccessor, ClassPlan.accessor(staticField));
+        TestFieldAccessors object = new TestFieldAccessors();
+        staticAccessor.set(null, 2);
+        accessor.set(object, "bar");
+        assertEquals(2, staticAccessor.get(null));
+        assertEquals("bar", accessor.get(object));
+        assertEquals(2, Utils.getField(staticField));
+        Utils.setField(staticField, "3");
+        assertEquals(3, TestFieldAccessors.staticField);
+        // the caller's Field is never made accessible
+        assertFalse(staticField.isAccessible());
+        assertFalse(field.isAccessible());
+    }
+
+    @Test
+    public void testPrimitiveFieldAccessors() throws Exception {
+        TestPrimitiveFieldAccessors object = new TestPrimitiveFieldAccessors();
+        Class<?> clazz = TestPrimitiveFieldAccessors.class;
+        ClassPlan.accessor(clazz.getDeclaredField("i")).setInt(object, 1);
+        ClassPlan.accessor(clazz.getDeclaredField("l")).setLong(object, Long.MAX_VALUE);
+        ClassPlan.accessor(clazz.getDeclaredField("d")).setDouble(object, 1.5);
+        ClassPlan.accessor(clazz.getDeclaredField("b")).setBoolean(object, true);
+        ClassPlan.accessor(clazz.getDeclaredField("c")).setChar(object, 'x');
+        ClassPlan.accessor(clazz.getDeclaredField("s")).setInt(null, 2);
+        assertEquals(1, ClassPlan.accessor(clazz.getDeclaredField("i")).getInt(object));
+        assertEquals(Long.MAX_VALUE, ClassPlan.accessor(clazz.getDeclaredField("l")).getLong(object));
+        assertEquals(1.5, ClassPlan.accessor(clazz.getDeclaredField("d")).getDouble(object), 0);
+        assertTrue(ClassPlan.accessor(clazz.getDeclaredField("b")).getBoolean(object));
+        assertEquals('x', ClassPlan.accessor(clazz.getDeclaredField("c")).getChar(object));
+        assertEquals(2, ClassPlan.accessor(clazz.getDeclaredField("s")).getInt(null));
+        assertEquals(1, object.i);
+        assertEquals(2, TestPrimitiveFieldAccessors.s);
+    }
+
+    @Test(expected = ConfigurationException.class)
+    public void testPrimitiveFieldAccessorsCheckTypes() throws Exception {
+        ClassPlan.accessor(TestPrimitiveFieldAccessors.class.getDeclaredField("l")).getInt(new TestPrimitiveFieldAccessors());
+    }
+
+    private static class TestPrimitiveFieldAccessors {
+        private static int s;
+        private int i;
+        private long l;
+        private double d;
+        private boolean b;
+        private char c;
+    }
+
+    @Test(expected = ConfigurationException.class)
+    public void testFieldAccessorsRefuseToSetFinalFields() throws Exception {
+        FieldAccessor accessor = ClassPlan.accessor(TestFieldAccessors.class.getDeclaredField("CONSTANT"));
+        assertEquals(1, accessor.get(null));
+        accessor.set(null, 2);
+    }
+
+    private static class TestFieldAccessors {
+        private static final int CONSTANT = 1;
+        private static int staticField;
+        private String field = "foo";
+    }
+
     private static class TestLoggerCallbacksAndExceptionToString {
         private static final Gson GSON = new Gson();
         public String toString() {
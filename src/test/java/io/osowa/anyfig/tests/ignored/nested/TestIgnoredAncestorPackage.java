@@ -0,0 +1,12 @@
+package io.osowa.anyfig.tests.ignored.nested;
+
+import io.osowa.anyfig.Configurable;
+
+// this test fixture is in a strange package because is used for testing ignored ancestor packages
+
+public class TestIgnoredAncestorPackage {
+
+    @Configurable(literal = true, value = "2")
+    public static int field = 1;
+
+}
@@ -0,0 +1,7 @@
+// this package contains no classes of its own; it is used for testing that ignoring a package also ignores its
+// descendant packages
+
+@Configurable(ignore = true)
+package io.osowa.anyfig.tests.ignored;
+
+import io.osowa.anyfig.Configurable;